@@ -21,24 +21,15 @@ public class BMPExporter {
 
             int width = sprite.getWidth();
             int height = sprite.getHeight();
-            int[] pixels = sprite.compositeCurrentFrame();
-
-            if (pixels == null) {
+            FrameRenderPipeline pipeline = new FrameRenderPipeline(sprite);
+            if (!pipeline.render(sprite.getCurrentFrameIndex())) {
                 dos.close();
                 fc.close();
                 return false;
             }
 
-            int[] rgbPixels = new int[width * height];
-            Palette palette = sprite.getPalette();
-            for (int i = 0; i < pixels.length; i++) {
-                int colorIdx = pixels[i] & 0xFF;
-                if (colorIdx == 0) {
-                    rgbPixels[i] = 0xFFFFFFFF;
-                } else {
-                    rgbPixels[i] = palette.getColor(colorIdx);
-                }
-            }
+            pipeline.setBackground(0xFFFFFFFF);
+            int[] rgbPixels = pipeline.getARGB();
 
             int rowSize = (width * 3 + 3) & ~3;
             int imageSize = rowSize * height;
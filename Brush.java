@@ -0,0 +1,164 @@
+/**
+ * Brush - Stamp shapes for pencil and eraser
+ *
+ * A stamp is a list of spans (row offset, left offset, right offset)
+ * relative to the brush center:
+ * - SQUARE, ROUND and DIAMOND stamps are built once per size and cached
+ * - CUSTOM stamps are captured from a layer (non-transparent pixels)
+ *
+ * Strokes stamp at every point of the line between two positions.
+ * Symmetric copies mirror the same spans, so each span costs one
+ * fillSpan per mirror.
+ */
+public class Brush {
+
+    public static final int SHAPE_SQUARE = 0;
+    public static final int SHAPE_ROUND = 1;
+    public static final int SHAPE_DIAMOND = 2;
+    public static final int SHAPE_CUSTOM = 3;
+
+    public static final int MAX_SIZE = 16;
+
+    private static final String[] SHAPE_NAMES = { "Sq", "Rd", "Dm", "Cu" };
+
+    // Lazily built stamps, indexed by shape * (MAX_SIZE + 1) + size
+    private static int[][] stampCache = new int[3 * (MAX_SIZE + 1)][];
+
+    private int shape = SHAPE_SQUARE;
+    private int size = 1;
+    private int[] spans;
+    private int[] customSpans;
+    private int customSize;
+
+    public Brush() {
+        rebuild();
+    }
+
+    public void stamp(PixelLayer layer, int x, int y, int color,
+                      boolean mirrorH, boolean mirrorV) {
+        int w = layer.getWidth();
+        int h = layer.getHeight();
+        int[] s = spans;
+        for (int i = 0; i < s.length; i += 3) {
+            int py = y + s[i];
+            int x0 = x + s[i + 1];
+            int x1 = x + s[i + 2];
+            layer.fillSpan(x0, x1, py, color);
+            if (mirrorH) {
+                layer.fillSpan(w - 1 - x1, w - 1 - x0, py, color);
+            }
+            if (mirrorV) {
+                layer.fillSpan(x0, x1, h - 1 - py, color);
+            }
+            if (mirrorH && mirrorV) {
+                layer.fillSpan(w - 1 - x1, w - 1 - x0, h - 1 - py, color);
+            }
+        }
+    }
+
+    /**
+     * Stamps along the line from (x0, y0) to (x1, y1). The start point
+     * is skipped since the previous segment already covered it.
+     */
+    public void stroke(PixelLayer layer, int x0, int y0, int x1, int y1, int color,
+                       boolean mirrorH, boolean mirrorV) {
+        int dx = Math.abs(x1 - x0);
+        int dy = Math.abs(y1 - y0);
+        int sx = x0 < x1 ? 1 : -1;
+        int sy = y0 < y1 ? 1 : -1;
+        int err = dx - dy;
+        while (x0 != x1 || y0 != y1) {
+            int e2 = 2 * err;
+            if (e2 > -dy) { err -= dy; x0 += sx; }
+            if (e2 < dx) { err += dx; y0 += sy; }
+            stamp(layer, x0, y0, color, mirrorH, mirrorV);
+        }
+    }
+
+    /**
+     * Uses the non-transparent pixels of a size x size area centered
+     * on (x, y) as the stamp. Returns false if the area is empty.
+     */
+    public boolean captureCustom(PixelLayer layer, int x, int y, int captureSize) {
+        captureSize = Math.max(1, Math.min(MAX_SIZE, captureSize));
+        int half = captureSize / 2;
+        int count = 0;
+        int[] buf = new int[captureSize * captureSize * 3];
+        for (int row = 0; row < captureSize; row++) {
+            int py = y - half + row;
+            int col = 0;
+            while (col < captureSize) {
+                while (col < captureSize && layer.getPixel(x - half + col, py) == 0) col++;
+                if (col >= captureSize) break;
+                int start = col;
+                while (col < captureSize && layer.getPixel(x - half + col, py) != 0) col++;
+                buf[count++] = row - half;
+                buf[count++] = start - half;
+                buf[count++] = col - 1 - half;
+            }
+        }
+        if (count == 0) return false;
+        customSpans = new int[count];
+        System.arraycopy(buf, 0, customSpans, 0, count);
+        customSize = captureSize;
+        shape = SHAPE_CUSTOM;
+        size = captureSize;
+        spans = customSpans;
+        return true;
+    }
+
+    public void nextShape() {
+        int count = customSpans != null ? SHAPE_NAMES.length : SHAPE_NAMES.length - 1;
+        shape = (shape + 1) % count;
+        if (shape == SHAPE_CUSTOM) size = customSize;
+        rebuild();
+    }
+
+    public void setSize(int newSize) {
+        if (shape == SHAPE_CUSTOM) return;
+        size = Math.max(1, Math.min(MAX_SIZE, newSize));
+        rebuild();
+    }
+
+    public int getSize() { return size; }
+    public int getShape() { return shape; }
+    public String getShapeName() { return SHAPE_NAMES[shape]; }
+
+    // Distance from the center to the farthest stamp pixel
+    public int getReach() { return size / 2 + 1; }
+
+    private void rebuild() {
+        if (shape == SHAPE_CUSTOM) {
+            spans = customSpans;
+            return;
+        }
+        int key = shape * (MAX_SIZE + 1) + size;
+        if (stampCache[key] == null) {
+            stampCache[key] = buildSpans(shape, size);
+        }
+        spans = stampCache[key];
+    }
+
+    private static int[] buildSpans(int shape, int size) {
+        int half = size / 2;
+        int[] s = new int[size * 3];
+        int count = 0;
+        // Doubled coordinates keep even sizes centered between pixels
+        int limit = shape == SHAPE_ROUND ? size * size - size : size;
+        for (int row = 0; row < size; row++) {
+            int dy = Math.abs(2 * row - (size - 1));
+            int left = 0;
+            while (left < size - 1 - left) {
+                int dx = Math.abs(2 * left - (size - 1));
+                if (shape == SHAPE_SQUARE) break;
+                if (shape == SHAPE_ROUND && dx * dx + dy * dy <= limit) break;
+                if (shape == SHAPE_DIAMOND && dx + dy <= limit) break;
+                left++;
+            }
+            s[count++] = row - half;
+            s[count++] = left - half;
+            s[count++] = size - 1 - left - half;
+        }
+        return s;
+    }
+}
@@ -0,0 +1,48 @@
+/**
+ * CRC32 - Table-driven CRC-32 (ISO 3309, as used by PNG chunks)
+ *
+ * The 256-entry table is built once and shared. update() can be
+ * called any number of times as bytes are written, so a chunk never
+ * has to be held in one array just to checksum it.
+ */
+public class CRC32 {
+
+    private static final int[] TABLE = new int[256];
+
+    static {
+        for (int n = 0; n < 256; n++) {
+            int c = n;
+            for (int k = 0; k < 8; k++) {
+                c = (c & 1) != 0 ? 0xEDB88320 ^ (c >>> 1) : c >>> 1;
+            }
+            TABLE[n] = c;
+        }
+    }
+
+    private int crc = 0xFFFFFFFF;
+
+    public void reset() {
+        crc = 0xFFFFFFFF;
+    }
+
+    public void update(int b) {
+        crc = TABLE[(crc ^ b) & 0xFF] ^ (crc >>> 8);
+    }
+
+    public void update(byte[] data, int off, int len) {
+        int c = crc;
+        int end = off + len;
+        for (int i = off; i < end; i++) {
+            c = TABLE[(c ^ data[i]) & 0xFF] ^ (c >>> 8);
+        }
+        crc = c;
+    }
+
+    public void update(byte[] data) {
+        update(data, 0, data.length);
+    }
+
+    public int getValue() {
+        return ~crc;
+    }
+}
@@ -0,0 +1,174 @@
+/**
+ * ColorFilter - Palette-space color adjustments for indexed layers
+ *
+ * Layers store palette indices, so a filter is evaluated once per
+ * palette entry: buildLUT() maps every index to the entry closest to
+ * its filtered color (index 0 stays transparent) and the LUT is applied
+ * to raw pixel arrays in a single pass.
+ *
+ * Filters:
+ * - INVERT, GRAYSCALE
+ * - BRIGHTNESS: amount -255..255 added to each channel
+ * - CONTRAST: amount -100..100 percent around mid gray
+ * - HUE_SHIFT: amount in degrees
+ * - POSTERIZE: amount = levels per channel (2..255)
+ * - PALETTE_SWAP: indices [from, from + count) -> [to, to + count)
+ */
+public class ColorFilter {
+
+    public static final int INVERT = 0;
+    public static final int GRAYSCALE = 1;
+    public static final int BRIGHTNESS = 2;
+    public static final int CONTRAST = 3;
+    public static final int HUE_SHIFT = 4;
+    public static final int POSTERIZE = 5;
+    public static final int PALETTE_SWAP = 6;
+
+    // Hue scale: six 256-step sectors
+    public static final int HUE_RANGE = 1536;
+
+    private int type;
+    private int amount;
+    private int swapTo;
+    private int swapCount;
+
+    public ColorFilter(int type, int amount) {
+        this.type = type;
+        this.amount = amount;
+    }
+
+    public static ColorFilter paletteSwap(int from, int to, int count) {
+        ColorFilter filter = new ColorFilter(PALETTE_SWAP, from);
+        filter.swapTo = to;
+        filter.swapCount = count;
+        return filter;
+    }
+
+    public int getType() { return type; }
+    public int getAmount() { return amount; }
+
+    /**
+     * Filtered RGB of one color.
+     */
+    public int apply(int rgb) {
+        int r = (rgb >> 16) & 0xFF;
+        int g = (rgb >> 8) & 0xFF;
+        int b = rgb & 0xFF;
+        switch (type) {
+            case INVERT:
+                r = 255 - r;
+                g = 255 - g;
+                b = 255 - b;
+                break;
+            case GRAYSCALE:
+                r = g = b = (r + g + b) / 3;
+                break;
+            case BRIGHTNESS:
+                r = clamp(r + amount);
+                g = clamp(g + amount);
+                b = clamp(b + amount);
+                break;
+            case CONTRAST:
+                r = clamp((r - 128) * (100 + amount) / 100 + 128);
+                g = clamp((g - 128) * (100 + amount) / 100 + 128);
+                b = clamp((b - 128) * (100 + amount) / 100 + 128);
+                break;
+            case HUE_SHIFT:
+                return shiftHue(rgb, amount * HUE_RANGE / 360);
+            case POSTERIZE:
+                r = posterize(r);
+                g = posterize(g);
+                b = posterize(b);
+                break;
+            default:
+                return rgb & 0xFFFFFF;
+        }
+        return (r << 16) | (g << 8) | b;
+    }
+
+    /**
+     * Index remap table for this filter on the given palette.
+     */
+    public byte[] buildLUT(Palette palette) {
+        byte[] lut = new byte[256];
+        for (int i = 0; i < 256; i++) {
+            lut[i] = (byte) i;
+        }
+        int count = palette.getColorCount();
+        if (type == PALETTE_SWAP) {
+            for (int i = 0; i < swapCount; i++) {
+                int from = amount + i;
+                int to = swapTo + i;
+                // Never swap into or out of the transparent slot
+                if (from < 1 || to < 1 || from >= count || to >= count) continue;
+                lut[from] = (byte) to;
+            }
+            return lut;
+        }
+        for (int i = 1; i < count; i++) {
+            lut[i] = (byte) palette.findNearestOpaqueColor(apply(palette.getColor(i)));
+        }
+        return lut;
+    }
+
+    public void applyTo(PixelLayer layer, Palette palette) {
+        layer.remap(buildLUT(palette));
+    }
+
+    /**
+     * Hue in 0..HUE_RANGE-1, or -1 for grays.
+     */
+    public static int hue(int rgb) {
+        int r = (rgb >> 16) & 0xFF;
+        int g = (rgb >> 8) & 0xFF;
+        int b = rgb & 0xFF;
+        int max = Math.max(r, Math.max(g, b));
+        int min = Math.min(r, Math.min(g, b));
+        int d = max - min;
+        if (d == 0) return -1;
+        int hue;
+        if (max == r) {
+            hue = g >= b ? (g - b) * 256 / d : HUE_RANGE - (b - g) * 256 / d;
+        } else if (max == g) {
+            hue = 512 + (b - r) * 256 / d;
+        } else {
+            hue = 1024 + (r - g) * 256 / d;
+        }
+        return hue >= HUE_RANGE ? 0 : hue;
+    }
+
+    private static int shiftHue(int rgb, int shift) {
+        int hue = hue(rgb);
+        if (hue < 0) return rgb & 0xFFFFFF;
+        hue = (hue + shift) % HUE_RANGE;
+        if (hue < 0) hue += HUE_RANGE;
+        int r = (rgb >> 16) & 0xFF;
+        int g = (rgb >> 8) & 0xFF;
+        int b = rgb & 0xFF;
+        int max = Math.max(r, Math.max(g, b));
+        int min = Math.min(r, Math.min(g, b));
+        int d = max - min;
+        int f = hue & 0xFF;
+        int up = min + d * f / 256;
+        int down = max - d * f / 256;
+        switch (hue >> 8) {
+            case 0: r = max; g = up; b = min; break;
+            case 1: r = down; g = max; b = min; break;
+            case 2: r = min; g = max; b = up; break;
+            case 3: r = min; g = down; b = max; break;
+            case 4: r = up; g = min; b = max; break;
+            default: r = max; g = min; b = down; break;
+        }
+        return (r << 16) | (g << 8) | b;
+    }
+
+    private int posterize(int c) {
+        int levels = Math.max(2, Math.min(255, amount));
+        int step = (c * (levels - 1) + 127) / 255;
+        return step * 255 / (levels - 1);
+    }
+
+    private static int clamp(int c) {
+        return c < 0 ? 0 : (c > 255 ? 255 : c);
+    }
+}
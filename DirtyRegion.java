@@ -0,0 +1,62 @@
+/**
+ * DirtyRegion - Bounding rectangle of changed pixels
+ *
+ * Layers grow it on every write, frames merge the regions of their
+ * layers and recomposite only the area inside the rectangle.
+ */
+public class DirtyRegion {
+    private int minX;
+    private int minY;
+    private int maxX;
+    private int maxY;
+    private boolean empty;
+
+    public DirtyRegion() {
+        clear();
+    }
+
+    public void add(int x, int y) {
+        if (empty) {
+            minX = maxX = x;
+            minY = maxY = y;
+            empty = false;
+            return;
+        }
+        if (x < minX) minX = x;
+        else if (x > maxX) maxX = x;
+        if (y < minY) minY = y;
+        else if (y > maxY) maxY = y;
+    }
+
+    public void add(int x, int y, int w, int h) {
+        if (w <= 0 || h <= 0) return;
+        add(x, y);
+        add(x + w - 1, y + h - 1);
+    }
+
+    public void add(DirtyRegion other) {
+        if (other == null || other.empty) return;
+        add(other.minX, other.minY);
+        add(other.maxX, other.maxY);
+    }
+
+    public void clip(int width, int height) {
+        if (empty) return;
+        if (minX < 0) minX = 0;
+        if (minY < 0) minY = 0;
+        if (maxX >= width) maxX = width - 1;
+        if (maxY >= height) maxY = height - 1;
+        if (minX > maxX || minY > maxY) clear();
+    }
+
+    public void clear() {
+        empty = true;
+        minX = minY = maxX = maxY = 0;
+    }
+
+    public boolean isEmpty() { return empty; }
+    public int getX() { return minX; }
+    public int getY() { return minY; }
+    public int getWidth() { return empty ? 0 : maxX - minX + 1; }
+    public int getHeight() { return empty ? 0 : maxY - minY + 1; }
+}
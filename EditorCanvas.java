@@ -16,11 +16,13 @@ public class EditorCanvas extends Canvas implements CommandListener {
 
     private int currentTool = TOOL_PENCIL;
     private int currentColorIndex = 2;
-    private int brushSize = 1;
+    private Brush brush = new Brush();
+    private int fillTolerance = 0;
+    private boolean fillContiguous = true;
+    private int effectScope = Sprite.SCOPE_LAYER;
     private boolean isDrawing = false;
     private int lastDrawX = -1;
     private int lastDrawY = -1;
-    private long lastDrawTime = 0;
 
     public static final int TOOL_PENCIL = 0;
     public static final int TOOL_ERASER = 1;
@@ -32,6 +34,8 @@ public class EditorCanvas extends Canvas implements CommandListener {
     public static final int TOOL_SPRAY = 7;
     public static final int TOOL_CIRCLE = 8;
 
+    private static final int[] FILL_TOLERANCES = { 0, 16, 32, 64 };
+
     private static final String[] TOOL_NAMES = {
         "Pencil", "Eraser", "Fill", "Line", "Rect", "Pick", "Select", "Spray", "Circle"
     };
@@ -45,6 +49,18 @@ public class EditorCanvas extends Canvas implements CommandListener {
     private Image offscreen;
     private Graphics offscreenG;
 
+    private Image viewImage;
+    private Graphics viewG;
+    private Frame viewFrame;
+    private DirtyRegion viewDirty = new DirtyRegion();
+    private int viewOffsetX;
+    private int viewOffsetY;
+    private int viewZoom;
+    private int viewH;
+    private boolean viewValid = false;
+
+    private int clipX, clipY, clipW, clipH;
+
     private boolean showGrid = true;
     private boolean showOnionSkin = false;
     private boolean showTimeline = true;
@@ -58,7 +74,8 @@ public class EditorCanvas extends Canvas implements CommandListener {
     private int rectStartY = -1;
     private boolean rectStarted = false;
 
-    private UndoManager undoManager = new UndoManager(10);
+    private UndoManager undoManager = new UndoManager(UndoManager.budgetFromHeap());
+    private SpriteRenderer renderer = new SpriteRenderer();
 
     public EditorCanvas(PixelArtists midlet, Sprite sprite) {
         this.midlet = midlet;
@@ -75,15 +92,32 @@ public class EditorCanvas extends Canvas implements CommandListener {
             offscreen = Image.createImage(screenW, screenH);
             offscreenG = offscreen.getGraphics();
         } catch (Exception e) {}
+        try {
+            viewImage = Image.createImage(screenW, screenH - toolbarH);
+            viewG = viewImage.getGraphics();
+        } catch (Exception e) {
+            viewImage = null;
+        }
     }
 
     protected void paint(Graphics g) {
+        clipX = g.getClipX();
+        clipY = g.getClipY();
+        clipW = g.getClipWidth();
+        clipH = g.getClipHeight();
         Graphics targetG = (offscreen != null) ? offscreenG : g;
+        if (offscreen != null) {
+            offscreenG.setClip(clipX, clipY, clipW, clipH);
+        }
         targetG.setColor(0x1A1A2E);
-        targetG.fillRect(0, 0, screenW, screenH);
-        drawToolbar(targetG);
-        drawCanvas(targetG);
-        if (showTimeline) {
+        targetG.fillRect(clipX, clipY, clipW, clipH);
+        if (clipIntersects(0, toolbarH)) {
+            drawToolbar(targetG);
+        }
+        if (clipIntersects(canvasAreaY, canvasAreaH)) {
+            drawCanvas(targetG);
+        }
+        if (showTimeline && clipIntersects(screenH - timelineH, timelineH)) {
             drawTimeline(targetG);
         }
         if (offscreen != null) {
@@ -91,11 +125,22 @@ public class EditorCanvas extends Canvas implements CommandListener {
         }
     }
 
+    private boolean clipIntersects(int y, int h) {
+        return clipY < y + h && y < clipY + clipH;
+    }
+
     private void drawToolbar(Graphics g) {
         g.setColor(0x0F1419);
         g.fillRect(0, 0, screenW, toolbarH);
         g.setColor(0xFFFFFF);
         String toolText = TOOL_NAMES[currentTool];
+        if ((currentTool == TOOL_PENCIL || currentTool == TOOL_ERASER) && brush.getSize() > 1) {
+            toolText += " " + brush.getSize() + brush.getShapeName();
+        }
+        if (currentTool == TOOL_FILL) {
+            if (!fillContiguous) toolText += "*";
+            if (fillTolerance > 0) toolText += "~" + fillTolerance;
+        }
         if (isDrawing) toolText = "[" + toolText + "]";
         g.drawString(toolText, 2, 1, Graphics.TOP | Graphics.LEFT);
         String zoomText = "x" + zoomLevel;
@@ -119,45 +164,46 @@ public class EditorCanvas extends Canvas implements CommandListener {
     private void drawCanvas(Graphics g) {
         int canvasW = sprite.getWidth();
         int canvasH = sprite.getHeight();
-        g.setColor(0x2B2B2B);
-        g.fillRect(0, canvasAreaY, screenW, canvasAreaH);
-
-        if (showOnionSkin) {
-            drawOnionSkin(g, canvasW, canvasH);
-        }
+        renderer.resetCounters();
 
         int[] pixels = sprite.compositeCurrentFrame();
-        if (pixels == null) return;
+        Frame frame = sprite.getCurrentFrame();
 
         int startX = Math.max(0, offsetX);
         int startY = Math.max(0, offsetY);
         int visibleW = Math.min(canvasW, offsetX + (screenW / zoomLevel) + 1);
         int visibleH = Math.min(canvasH, offsetY + (canvasAreaH / zoomLevel) + 1);
 
-        for (int py = startY; py < visibleH; py++) {
-            for (int px = startX; px < visibleW; px++) {
-                int idx = py * canvasW + px;
-                if (idx >= 0 && idx < pixels.length) {
-                    int color = pixels[idx];
-                    if (color != 0) {
-                        g.setColor(color);
-                        int sx = (px - offsetX) * zoomLevel;
-                        int sy = canvasAreaY + (py - offsetY) * zoomLevel;
-                        g.fillRect(sx, sy, zoomLevel, zoomLevel);
-                    }
-                }
+        if (viewImage != null && pixels != null) {
+            updateView(pixels, frame);
+            g.drawRegion(viewImage, 0, 0, screenW, canvasAreaH, 0, 0, canvasAreaY, Graphics.TOP | Graphics.LEFT);
+        } else {
+            g.setColor(0x2B2B2B);
+            g.fillRect(0, canvasAreaY, screenW, canvasAreaH);
+            if (pixels == null) return;
+            if (showOnionSkin) {
+                drawOnionSkin(g, (startX - offsetX) * zoomLevel, canvasAreaY + (startY - offsetY) * zoomLevel,
+                    startX, startY, visibleW - startX, visibleH - startY);
             }
+            renderer.render(g, pixels, canvasW, startX, startY, visibleW - startX, visibleH - startY,
+                (startX - offsetX) * zoomLevel, canvasAreaY + (startY - offsetY) * zoomLevel, zoomLevel);
         }
 
         if (showGrid && zoomLevel >= 4) {
+            int firstPy = Math.max(startY, offsetY + (clipY - canvasAreaY) / zoomLevel);
+            int lastPy = Math.min(visibleH, offsetY + (clipY + clipH - canvasAreaY) / zoomLevel + 1);
+            int firstPx = Math.max(startX, offsetX + clipX / zoomLevel);
+            int lastPx = Math.min(visibleW, offsetX + (clipX + clipW) / zoomLevel + 1);
+            int lineTop = Math.max(canvasAreaY, clipY);
+            int lineBottom = Math.min(canvasAreaY + canvasAreaH, clipY + clipH);
             g.setColor(0x555555);
-            for (int py = startY; py <= visibleH; py++) {
+            for (int py = firstPy; py <= lastPy; py++) {
                 int sy = canvasAreaY + (py - offsetY) * zoomLevel;
-                g.drawLine(0, sy, screenW, sy);
+                g.drawLine(clipX, sy, clipX + clipW, sy);
             }
-            for (int px = startX; px <= visibleW; px++) {
+            for (int px = firstPx; px <= lastPx; px++) {
                 int sx = (px - offsetX) * zoomLevel;
-                g.drawLine(sx, canvasAreaY, sx, canvasAreaY + canvasAreaH);
+                g.drawLine(sx, lineTop, sx, lineBottom);
             }
         }
 
@@ -177,28 +223,128 @@ public class EditorCanvas extends Canvas implements CommandListener {
             g.setColor(palette.getColor(currentColorIndex));
             drawRectPreview(g, rectStartX, rectStartY, cursorX, cursorY);
         }
+
+        if (midlet.showFPS) {
+            drawRenderStats(g);
+        }
+    }
+
+    private void drawRenderStats(Graphics g) {
+        String stats = renderer.getModeName() + " " + renderer.getTotalCalls() + " calls";
+        g.setColor(0x000000);
+        g.fillRect(0, canvasAreaY, screenW / 2 + 20, 14);
+        g.setColor(0x00FF00);
+        g.drawString(stats, 2, canvasAreaY + 1, Graphics.TOP | Graphics.LEFT);
+    }
+
+    // Keeps a zoomed image of the visible sprite area. Edits redraw only
+    // the changed cells, scrolling blits the old image and fills the strip
+    // that came into view; cursor, grid and previews are overlays.
+    private void updateView(int[] pixels, Frame frame) {
+        frame.takeChangedRegion(viewDirty);
+        if (!viewValid || frame != viewFrame || zoomLevel != viewZoom || canvasAreaH != viewH) {
+            viewFrame = frame;
+            viewZoom = zoomLevel;
+            viewH = canvasAreaH;
+            viewOffsetX = offsetX;
+            viewOffsetY = offsetY;
+            viewDirty.clear();
+            renderViewArea(pixels, 0, 0, screenW, viewH);
+            viewValid = true;
+            return;
+        }
+
+        if (offsetX != viewOffsetX || offsetY != viewOffsetY) {
+            scrollView(pixels);
+        }
+
+        if (!viewDirty.isEmpty()) {
+            int vx = (viewDirty.getX() - viewOffsetX) * viewZoom;
+            int vy = (viewDirty.getY() - viewOffsetY) * viewZoom;
+            int vw = viewDirty.getWidth() * viewZoom;
+            int vh = viewDirty.getHeight() * viewZoom;
+            viewDirty.clear();
+            if (vx < 0) { vw += vx; vx = 0; }
+            if (vy < 0) { vh += vy; vy = 0; }
+            if (vx + vw > screenW) vw = screenW - vx;
+            if (vy + vh > viewH) vh = viewH - vy;
+            if (vw > 0 && vh > 0) {
+                renderViewArea(pixels, vx, vy, vw, vh);
+            }
+        }
+    }
+
+    private void scrollView(int[] pixels) {
+        int dx = (offsetX - viewOffsetX) * viewZoom;
+        int dy = (offsetY - viewOffsetY) * viewZoom;
+        viewOffsetX = offsetX;
+        viewOffsetY = offsetY;
+        int keepW = screenW - Math.abs(dx);
+        int keepH = viewH - Math.abs(dy);
+        if (keepW <= 0 || keepH <= 0) {
+            renderViewArea(pixels, 0, 0, screenW, viewH);
+            return;
+        }
+        viewG.copyArea(Math.max(0, dx), Math.max(0, dy), keepW, keepH,
+            Math.max(0, -dx), Math.max(0, -dy), Graphics.TOP | Graphics.LEFT);
+
+        // The partially visible last column/row becomes fully visible
+        // when content moves towards the origin, so redraw it as well
+        if (dx > 0) {
+            int stripX = keepW - screenW % viewZoom;
+            renderViewArea(pixels, stripX, 0, screenW - stripX, viewH);
+        } else if (dx < 0) {
+            renderViewArea(pixels, 0, 0, -dx, viewH);
+        }
+        if (dy > 0) {
+            int stripY = keepH - viewH % viewZoom;
+            renderViewArea(pixels, 0, stripY, screenW, viewH - stripY);
+        } else if (dy < 0) {
+            renderViewArea(pixels, 0, 0, screenW, -dy);
+        }
+    }
+
+    private void renderViewArea(int[] pixels, int vx, int vy, int vw, int vh) {
+        int canvasW = sprite.getWidth();
+        int canvasH = sprite.getHeight();
+        viewG.setClip(vx, vy, vw, vh);
+        viewG.setColor(0x2B2B2B);
+        viewG.fillRect(vx, vy, vw, vh);
+
+        int sx0 = viewOffsetX + vx / viewZoom;
+        int sy0 = viewOffsetY + vy / viewZoom;
+        int sx1 = Math.min(canvasW, viewOffsetX + (vx + vw + viewZoom - 1) / viewZoom);
+        int sy1 = Math.min(canvasH, viewOffsetY + (vy + vh + viewZoom - 1) / viewZoom);
+        if (sx1 > sx0 && sy1 > sy0) {
+            int dstX = (sx0 - viewOffsetX) * viewZoom;
+            int dstY = (sy0 - viewOffsetY) * viewZoom;
+            if (showOnionSkin) {
+                drawOnionSkin(viewG, dstX, dstY, sx0, sy0, sx1 - sx0, sy1 - sy0);
+            }
+            renderer.render(viewG, pixels, canvasW, sx0, sy0, sx1 - sx0, sy1 - sy0, dstX, dstY, viewZoom);
+        }
+        viewG.setClip(0, 0, screenW, screenH - toolbarH);
+    }
+
+    public void invalidateView() {
+        viewValid = false;
     }
 
-    private void drawOnionSkin(Graphics g, int canvasW, int canvasH) {
+    private void drawOnionSkin(Graphics g, int dstX, int dstY, int srcX, int srcY, int srcW, int srcH) {
         int prevFrameIdx = sprite.getCurrentFrameIndex() - 1;
         if (prevFrameIdx < 0) return;
 
-        Frame prevFrame = sprite.getFrame(prevFrameIdx);
-        if (prevFrame == null) return;
-
-        int[] prevPixels = prevFrame.composite();
+        int[] prevPixels = sprite.compositeFrame(prevFrameIdx);
         if (prevPixels == null) return;
 
+        int canvasW = sprite.getWidth();
         g.setColor(0x40FF40);
-        for (int py = 0; py < canvasH; py++) {
-            for (int px = 0; px < canvasW; px++) {
-                int idx = py * canvasW + px;
-                if (idx < prevPixels.length && prevPixels[idx] != 0) {
-                    int sx = (px - offsetX) * zoomLevel;
-                    int sy = canvasAreaY + (py - offsetY) * zoomLevel;
-                    if (sx >= 0 && sx < screenW && sy >= canvasAreaY && sy < canvasAreaY + canvasAreaH) {
-                        g.fillRect(sx, sy, 1, 1);
-                    }
+        for (int py = 0; py < srcH; py++) {
+            int rowStart = (srcY + py) * canvasW + srcX;
+            int sy = dstY + py * zoomLevel;
+            for (int px = 0; px < srcW; px++) {
+                if (prevPixels[rowStart + px] != 0) {
+                    g.fillRect(dstX + px * zoomLevel, sy, 1, 1);
                 }
             }
         }
@@ -296,30 +442,107 @@ public class EditorCanvas extends Canvas implements CommandListener {
             case Canvas.KEY_NUM0: undo(); return;
         }
 
-        if (keyCode == '[') { sprite.previousFrame(); repaint(); return; }
-        if (keyCode == ']') { sprite.nextFrame(); repaint(); return; }
+        if (keyCode == '[') { stopDrawing(); sprite.previousFrame(); repaint(); return; }
+        if (keyCode == ']') { stopDrawing(); sprite.nextFrame(); repaint(); return; }
 
         char c = (char) keyCode;
         switch (c) {
-            case 'g': case 'G': showGrid = !showGrid; repaint(); return;
-            case 'o': case 'O': showOnionSkin = !showOnionSkin; repaint(); return;
+            case 'g': case 'G': showGrid = !showGrid; repaintCanvasArea(); return;
+            case 'o': case 'O': showOnionSkin = !showOnionSkin; invalidateView(); repaintCanvasArea(); return;
             case 't': case 'T': showTimeline = !showTimeline; canvasAreaH = showTimeline ? (screenH - toolbarH - timelineH) : (screenH - toolbarH); repaint(); return;
-            case 's': case 'S': symmetryH = !symmetryH; repaint(); return;
-            case 'v': case 'V': symmetryV = !symmetryV; repaint(); return;
-            case 'f': case 'F': sprite.flipHorizontal(); repaint(); return;
-            case 'i': case 'I': sprite.invertColors(); repaint(); return;
-            case 'h': case 'H': sprite.grayscale(); repaint(); return;
+            case 's': case 'S': symmetryH = !symmetryH; return;
+            case 'v': case 'V': symmetryV = !symmetryV; return;
+            case 'f': case 'F': applyTransform(Sprite.FLIP_HORIZONTAL); return;
+            case 'i': case 'I': applyFilter(new ColorFilter(ColorFilter.INVERT, 0)); return;
+            case 'h': case 'H': applyFilter(new ColorFilter(ColorFilter.GRAYSCALE, 0)); return;
+            case 'e': case 'E': cycleEffectScope(); midlet.showAlert("Effects", "Apply to: " + Sprite.getScopeName(effectScope), AlertType.INFO); return;
+            case 'y': case 'Y': redo(); return;
+            case 'c': case 'C': fillContiguous = !fillContiguous; repaintToolbar(); return;
+            case 'x': case 'X': nextFillTolerance(); repaintToolbar(); return;
+            case 'b': case 'B': brush.nextShape(); repaintToolbar(); return;
+            case 'n': case 'N': brush.setSize(brush.getSize() - 1); repaintToolbar(); return;
+            case 'm': case 'M': brush.setSize(brush.getSize() + 1); repaintToolbar(); return;
+            case 'u': case 'U': captureBrush(); repaintToolbar(); return;
+            case 'p': case 'P': renderer.nextMode(); invalidateView(); repaintCanvasArea(); return;
+            case 'k': case 'K': midlet.showFPS = !midlet.showFPS; repaintCanvasArea(); return;
         }
     }
 
     private void moveCursor(int dx, int dy) {
+        int oldX = cursorX;
+        int oldY = cursorY;
+        int oldOffsetX = offsetX;
+        int oldOffsetY = offsetY;
+        int strokeX = lastDrawX;
+        int strokeY = lastDrawY;
         cursorX = clamp(cursorX + dx, 0, sprite.getWidth() - 1);
         cursorY = clamp(cursorY + dy, 0, sprite.getHeight() - 1);
+        boolean painted = false;
         if (isDrawing && (currentTool == TOOL_PENCIL || currentTool == TOOL_ERASER)) {
             drawContinuous(cursorX, cursorY);
+            painted = true;
         }
         scrollToCursor();
-        repaint();
+
+        if (offsetX != oldOffsetX || offsetY != oldOffsetY || (painted && (symmetryH || symmetryV))) {
+            repaintCanvasArea();
+            return;
+        }
+        repaintCells(oldX, oldY, cursorX, cursorY);
+        if (painted && strokeX >= 0) {
+            int reach = brush.getReach();
+            repaintCells(Math.min(strokeX, cursorX) - reach, Math.min(strokeY, cursorY) - reach,
+                         Math.max(strokeX, cursorX) + reach, Math.max(strokeY, cursorY) + reach);
+        }
+        if (lineStarted && currentTool == TOOL_LINE) {
+            repaintCells(lineStartX, lineStartY, oldX, oldY);
+            repaintCells(lineStartX, lineStartY, cursorX, cursorY);
+        }
+        if (rectStarted && currentTool == TOOL_RECT) {
+            repaintCells(rectStartX, rectStartY, oldX, oldY);
+            repaintCells(rectStartX, rectStartY, cursorX, cursorY);
+        }
+    }
+
+    private void repaintCells(int x0, int y0, int x1, int y1) {
+        int minX = Math.min(x0, x1);
+        int minY = Math.min(y0, y1);
+        int sx = (minX - offsetX) * zoomLevel;
+        int sy = canvasAreaY + (minY - offsetY) * zoomLevel;
+        int sw = (Math.max(x0, x1) - minX + 1) * zoomLevel + 1;
+        int sh = (Math.max(y0, y1) - minY + 1) * zoomLevel + 1;
+        if (sx < 0) { sw += sx; sx = 0; }
+        if (sy < canvasAreaY) { sh += sy - canvasAreaY; sy = canvasAreaY; }
+        if (sy + sh > canvasAreaY + canvasAreaH) sh = canvasAreaY + canvasAreaH - sy;
+        if (sw > 0 && sh > 0) {
+            repaint(sx, sy, sw, sh);
+        }
+        if (midlet.showFPS) {
+            repaint(0, canvasAreaY, screenW / 2 + 20, 14);
+        }
+    }
+
+    private void repaintPreview() {
+        if (lineStarted) {
+            repaintCells(lineStartX, lineStartY, cursorX, cursorY);
+        }
+        if (rectStarted) {
+            repaintCells(rectStartX, rectStartY, cursorX, cursorY);
+        }
+    }
+
+    public void repaintToolbar() {
+        repaint(0, 0, screenW, toolbarH);
+    }
+
+    public void repaintCanvasArea() {
+        repaint(0, canvasAreaY, screenW, canvasAreaH);
+    }
+
+    public void repaintTimeline() {
+        if (showTimeline) {
+            repaint(0, screenH - timelineH, screenW, timelineH);
+        }
     }
 
     private void scrollToCursor() {
@@ -335,82 +558,98 @@ public class EditorCanvas extends Canvas implements CommandListener {
 
     private void toggleDrawing() {
         if (currentTool == TOOL_PENCIL || currentTool == TOOL_ERASER) {
-            undoManager.saveState(sprite);
             isDrawing = !isDrawing;
             if (isDrawing) {
+                undoManager.beginEdit(sprite);
                 lastDrawX = cursorX;
                 lastDrawY = cursorY;
                 int color = (currentTool == TOOL_ERASER) ? 0 : currentColorIndex;
                 drawWithSymmetry(cursorX, cursorY, color);
             } else {
                 lastDrawX = lastDrawY = -1;
+                undoManager.endEdit();
+            }
+            repaintToolbar();
+            if (symmetryH || symmetryV) {
+                repaintCanvasArea();
+            } else {
+                int reach = brush.getReach();
+                repaintCells(cursorX - reach, cursorY - reach, cursorX + reach, cursorY + reach);
             }
         } else if (currentTool == TOOL_LINE) {
             if (!lineStarted) {
-                undoManager.saveState(sprite);
                 lineStartX = cursorX;
                 lineStartY = cursorY;
                 lineStarted = true;
             } else {
+                // Snapshot only now: the frame or layer may have changed
+                // since the first point was set
+                undoManager.beginEdit(sprite);
                 drawLineTool(lineStartX, lineStartY, cursorX, cursorY);
+                undoManager.endEdit();
                 lineStarted = false;
+            }
+            repaintCells(lineStartX, lineStartY, cursorX, cursorY);
+            if (!lineStarted) {
                 lineStartX = lineStartY = -1;
             }
-            repaint();
         } else if (currentTool == TOOL_RECT) {
             if (!rectStarted) {
-                undoManager.saveState(sprite);
                 rectStartX = cursorX;
                 rectStartY = cursorY;
                 rectStarted = true;
             } else {
+                undoManager.beginEdit(sprite);
                 drawRectTool(rectStartX, rectStartY, cursorX, cursorY);
+                undoManager.endEdit();
                 rectStarted = false;
+            }
+            repaintCells(rectStartX, rectStartY, cursorX, cursorY);
+            if (!rectStarted) {
                 rectStartX = rectStartY = -1;
             }
-            repaint();
         } else {
-            undoManager.saveState(sprite);
+            undoManager.beginEdit(sprite);
             applyTool();
-            repaint();
+            undoManager.endEdit();
+            repaintToolbar();
+            repaintCanvasArea();
         }
     }
 
     private void drawContinuous(int x, int y) {
-        long now = System.currentTimeMillis();
-        if (now - lastDrawTime < 30) return;
-        lastDrawTime = now;
+        int color = (currentTool == TOOL_ERASER) ? 0 : currentColorIndex;
         if (lastDrawX == -1 || lastDrawY == -1) {
-            lastDrawX = x;
-            lastDrawY = y;
-            return;
+            drawWithSymmetry(x, y, color);
+        } else {
+            PixelLayer layer = getActivePixelLayer();
+            if (layer != null) {
+                brush.stroke(layer, lastDrawX, lastDrawY, x, y, color, symmetryH, symmetryV);
+            }
         }
-        int color = (currentTool == TOOL_ERASER) ? 0 : currentColorIndex;
-        drawLine(lastDrawX, lastDrawY, x, y, color);
         lastDrawX = x;
         lastDrawY = y;
     }
 
     private void drawWithSymmetry(int x, int y, int color) {
-        sprite.setPixel(x, y, color);
-        if (symmetryH) {
-            sprite.setPixel(sprite.getWidth() - 1 - x, y, color);
+        PixelLayer layer = getActivePixelLayer();
+        if (layer != null) {
+            brush.stamp(layer, x, y, color, symmetryH, symmetryV);
         }
-        if (symmetryV) {
-            sprite.setPixel(x, sprite.getHeight() - 1 - y, color);
-        }
-        if (symmetryH && symmetryV) {
-            sprite.setPixel(sprite.getWidth() - 1 - x, sprite.getHeight() - 1 - y, color);
+    }
+
+    private void captureBrush() {
+        PixelLayer layer = getActivePixelLayer();
+        if (layer != null && !brush.captureCustom(layer, cursorX, cursorY, Math.max(3, brush.getSize()))) {
+            midlet.showAlert("Brush", "Nothing under cursor to capture", AlertType.INFO);
         }
     }
 
-    private void drawLine(int x0, int y0, int x1, int y1, int color) {
+    private PixelLayer getActivePixelLayer() {
         Frame frame = sprite.getCurrentFrame();
-        if (frame == null) return;
+        if (frame == null) return null;
         Layer layer = frame.getActiveLayer();
-        if (layer instanceof PixelLayer) {
-            ((PixelLayer) layer).drawLine(x0, y0, x1, y1, color);
-        }
+        return layer instanceof PixelLayer ? (PixelLayer) layer : null;
     }
 
     private void drawLineTool(int x0, int y0, int x1, int y1) {
@@ -447,7 +686,7 @@ public class EditorCanvas extends Canvas implements CommandListener {
         if (frame == null) return;
         Layer layer = frame.getActiveLayer();
         if (layer instanceof PixelLayer) {
-            ((PixelLayer) layer).drawCircle(x, y, brushSize, currentColorIndex);
+            ((PixelLayer) layer).drawCircle(x, y, brush.getSize(), currentColorIndex);
         }
     }
 
@@ -456,10 +695,18 @@ public class EditorCanvas extends Canvas implements CommandListener {
         if (frame == null) return;
         Layer layer = frame.getActiveLayer();
         if (layer instanceof PixelLayer) {
-            ((PixelLayer) layer).floodFill(x, y, fillColor);
+            ((PixelLayer) layer).floodFill(x, y, fillColor, fillTolerance, fillContiguous, palette);
         }
     }
 
+    private void nextFillTolerance() {
+        int next = 0;
+        for (int i = 0; i < FILL_TOLERANCES.length - 1; i++) {
+            if (FILL_TOLERANCES[i] == fillTolerance) next = FILL_TOLERANCES[i + 1];
+        }
+        fillTolerance = next;
+    }
+
     private void spray(int x, int y, int color) {
         Frame frame = sprite.getCurrentFrame();
         if (frame == null) return;
@@ -473,7 +720,8 @@ public class EditorCanvas extends Canvas implements CommandListener {
         if (zoomLevel < maxZoom) {
             zoomLevel = Math.min(maxZoom, zoomLevel * 2);
             scrollToCursor();
-            repaint();
+            repaintToolbar();
+            repaintCanvasArea();
         }
     }
 
@@ -481,7 +729,8 @@ public class EditorCanvas extends Canvas implements CommandListener {
         if (zoomLevel > minZoom) {
             zoomLevel = Math.max(minZoom, zoomLevel / 2);
             scrollToCursor();
-            repaint();
+            repaintToolbar();
+            repaintCanvasArea();
         }
     }
 
@@ -490,7 +739,8 @@ public class EditorCanvas extends Canvas implements CommandListener {
         if (currentColorIndex < 0) {
             currentColorIndex = palette.getColorCount() - 1;
         }
-        repaint();
+        repaintToolbar();
+        repaintPreview();
     }
 
     private void nextColor() {
@@ -498,7 +748,8 @@ public class EditorCanvas extends Canvas implements CommandListener {
         if (currentColorIndex >= palette.getColorCount()) {
             currentColorIndex = 0;
         }
-        repaint();
+        repaintToolbar();
+        repaintPreview();
     }
 
     private void previousTool() {
@@ -507,10 +758,12 @@ public class EditorCanvas extends Canvas implements CommandListener {
             currentTool = TOOL_NAMES.length - 1;
         }
         isDrawing = false;
+        undoManager.endEdit();
         lastDrawX = lastDrawY = -1;
+        repaintPreview();
         lineStarted = false;
         rectStarted = false;
-        repaint();
+        repaintToolbar();
     }
 
     private void nextTool() {
@@ -519,15 +772,120 @@ public class EditorCanvas extends Canvas implements CommandListener {
             currentTool = 0;
         }
         isDrawing = false;
+        undoManager.endEdit();
         lastDrawX = lastDrawY = -1;
+        repaintPreview();
         lineStarted = false;
         rectStarted = false;
-        repaint();
+        repaintToolbar();
     }
 
     private void undo() {
-        undoManager.undo(sprite);
-        repaint();
+        isDrawing = false;
+        lineStarted = false;
+        rectStarted = false;
+        lastDrawX = lastDrawY = -1;
+        if (undoManager.undo(sprite)) {
+            fitToSprite();
+            repaint();
+        } else {
+            repaintToolbar();
+        }
+    }
+
+    // Ends strokes and drops half-placed lines/rects before the target
+    // layer changes
+    private void stopDrawing() {
+        isDrawing = false;
+        lastDrawX = lastDrawY = -1;
+        undoManager.endEdit();
+        repaintPreview();
+        lineStarted = false;
+        rectStarted = false;
+        lineStartX = lineStartY = -1;
+        rectStartX = rectStartY = -1;
+    }
+
+    private void redo() {
+        isDrawing = false;
+        lineStarted = false;
+        rectStarted = false;
+        lastDrawX = lastDrawY = -1;
+        if (undoManager.redo(sprite)) {
+            fitToSprite();
+            repaint();
+        }
+    }
+
+    public UndoManager getUndoManager() {
+        return undoManager;
+    }
+
+    public int getCurrentColorIndex() {
+        return currentColorIndex;
+    }
+
+    public void beginStructureChange() {
+        isDrawing = false;
+        undoManager.beginStructure(sprite);
+    }
+
+    public void endStructureChange() {
+        undoManager.endStructure(sprite);
+    }
+
+    // Effects and filters act on effectScope as one undo step
+    public boolean applyTransform(int op) {
+        isDrawing = false;
+        boolean done = sprite.transform(op, effectScope, undoManager);
+        fitToSprite();
+        repaintCanvasArea();
+        return done;
+    }
+
+    public boolean applyRotateScale(int degrees, int scalePercent, boolean smooth) {
+        isDrawing = false;
+        boolean done = sprite.rotateScale(degrees, scalePercent, smooth, effectScope, undoManager);
+        invalidateView();
+        repaintCanvasArea();
+        return done;
+    }
+
+    // Quarter turns of a non-square sprite swap its size
+    private void fitToSprite() {
+        lineStarted = false;
+        rectStarted = false;
+        cursorX = clamp(cursorX, 0, sprite.getWidth() - 1);
+        cursorY = clamp(cursorY, 0, sprite.getHeight() - 1);
+        scrollToCursor();
+        invalidateView();
+    }
+
+    public boolean applyFilter(ColorFilter filter) {
+        isDrawing = false;
+        boolean done = sprite.applyFilter(filter, effectScope, undoManager);
+        invalidateView();
+        repaintCanvasArea();
+        return done;
+    }
+
+    public int getEffectScope() {
+        return effectScope;
+    }
+
+    public void cycleEffectScope() {
+        effectScope = (effectScope + 1) % Sprite.SCOPE_COUNT;
+    }
+
+    // Pixel indices changed under the journal, so its deltas are void
+    public void paletteRemapped(int[] remap) {
+        if (remap == null) return;
+        isDrawing = false;
+        undoManager.clear();
+        currentColorIndex = clamp(remap[currentColorIndex], 0, palette.getColorCount() - 1);
+        invalidateView();
+        repaintToolbar();
+        repaintCanvasArea();
     }
 
     private int clamp(int v, int min, int max) {
@@ -86,23 +86,29 @@ public class ExportMenu extends List implements CommandListener {
         if (sprite == null) return;
         
         int frameCount = sprite.getFrameCount();
-        int savedFrame = sprite.getCurrentFrameIndex();
         
         midlet.showAlert("Exporting", "Exporting " + frameCount + " frames...", AlertType.INFO);
         
+        // Consecutive frames repeat most rows; Up filtering is enough
+        int savedFilter = PNGExporter.getFilterMode();
+        PNGExporter.setFilterMode(PNGFilter.MODE_UP);
         try {
-            for (int i = 0; i < frameCount; i++) {
-                sprite.setCurrentFrameIndex(i);
-                String filename = "frame_" + (i + 1) + "_" + System.currentTimeMillis();
-                PNGExporter.export(sprite, filename, midlet);
-                Thread.sleep(100);
-            }
+            new FrameRenderPipeline(sprite).run(new FrameSink() {
+                public void frame(FrameRenderPipeline pipeline, int index, Frame frame) {
+                    String filename = "frame_" + (index + 1) + "_" + System.currentTimeMillis();
+                    PNGExporter.export(pipeline, filename, midlet);
+                    try {
+                        Thread.sleep(100);
+                    } catch (InterruptedException e) {}
+                }
+            });
             
-            sprite.setCurrentFrameIndex(savedFrame);
             midlet.showAlert("Success", frameCount + " frames exported as PNG!", AlertType.CONFIRMATION);
             
         } catch (Exception e) {
             midlet.showAlert("Error", "Frame export failed: " + e, AlertType.ERROR);
+        } finally {
+            PNGExporter.setFilterMode(savedFilter);
         }
     }
     
@@ -112,7 +118,10 @@ public class ExportMenu extends List implements CommandListener {
         
         Frame frame = sprite.getCurrentFrame();
         if (frame != null) {
+            EditorCanvas canvas = midlet.getEditorCanvas();
+            if (canvas != null) canvas.beginStructureChange();
             frame.flattenLayers();
+            if (canvas != null) canvas.endStructureChange();
             midlet.showAlert("Info", "Layers flattened. Exporting...", AlertType.INFO);
             midlet.exportFormat("PNG");
         }
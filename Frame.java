@@ -5,6 +5,15 @@ public class Frame {
     private int layerCount;
     private int activeLayerIndex;
     private int duration;
+    private int[] compositeBuffer;
+    private int[] colorTable;
+    private DirtyRegion compositeDirty;
+    private DirtyRegion compositeChanged;
+    private int[] belowBuffer;
+    private DirtyRegion belowDirty;
+    private int[] aboveBuffer;
+    private DirtyRegion aboveDirty;
+    private boolean layerCachesEnabled;
     private static final int MAX_LAYERS = 8;
 
     public Frame(int width, int height) {
@@ -14,6 +23,11 @@ public class Frame {
         this.layers = new Layer[MAX_LAYERS];
         this.layerCount = 0;
         this.activeLayerIndex = 0;
+        this.compositeDirty = new DirtyRegion();
+        this.compositeChanged = new DirtyRegion();
+        this.belowDirty = new DirtyRegion();
+        this.aboveDirty = new DirtyRegion();
+        this.layerCachesEnabled = false;
         addLayer(new PixelLayer(width, height, "Layer 1"));
     }
 
@@ -22,6 +36,7 @@ public class Frame {
         layers[layerCount] = layer;
         activeLayerIndex = layerCount;
         layerCount++;
+        invalidateComposite();
         return true;
     }
 
@@ -39,6 +54,7 @@ public class Frame {
         if (activeLayerIndex >= layerCount) {
             activeLayerIndex = layerCount - 1;
         }
+        invalidateComposite();
         return true;
     }
 
@@ -49,6 +65,7 @@ public class Frame {
         layers[index - 1] = temp;
         if (activeLayerIndex == index) activeLayerIndex--;
         else if (activeLayerIndex == index - 1) activeLayerIndex++;
+        invalidateComposite();
         return true;
     }
 
@@ -59,13 +76,17 @@ public class Frame {
         layers[index + 1] = temp;
         if (activeLayerIndex == index) activeLayerIndex++;
         else if (activeLayerIndex == index + 1) activeLayerIndex--;
+        invalidateComposite();
         return true;
     }
 
     public boolean mergeLayerDown() {
         if (activeLayerIndex >= layerCount - 1) return false;
         Layer upper = layers[activeLayerIndex];
-        Layer lower = layers[activeLayerIndex + 1];
+        // Merge into a copy so the original lower layer survives for undo
+        Layer lower = layers[activeLayerIndex + 1].duplicate();
+        lower.setName(layers[activeLayerIndex + 1].getName());
+        layers[activeLayerIndex + 1] = lower;
         for (int y = 0; y < height; y++) {
             for (int x = 0; x < width; x++) {
                 int upperPixel = upper.getPixel(x, y);
@@ -79,55 +100,317 @@ public class Frame {
     }
 
     public void flattenLayers() {
-        int[] composited = composite();
         PixelLayer flatLayer = new PixelLayer(width, height, "Flattened");
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                int idx = y * width + x;
-                flatLayer.setPixel(x, y, composited[idx] & 0xFF);
-            }
-        }
+        compositeIndexed(flatLayer.getRawPixels());
         layers[0] = flatLayer;
         for (int i = 1; i < layerCount; i++) {
             layers[i] = null;
         }
         layerCount = 1;
         activeLayerIndex = 0;
+        invalidateComposite();
+    }
+
+    // Palette indices of the visible layers, top-most non-zero pixel wins.
+    // Opacity is ignored beyond hiding layers at 0%.
+    public void compositeIndexed(byte[] out) {
+        int size = width * height;
+        for (int i = 0; i < size; i++) {
+            out[i] = 0;
+        }
+        for (int l = layerCount - 1; l >= 0; l--) {
+            Layer layer = layers[l];
+            if (layer == null || !layer.isVisible() || layer.getOpacity() <= 0) continue;
+            if (layer instanceof PixelLayer && ((PixelLayer) layer).getAlphaMask() == null) {
+                byte[] src = ((PixelLayer) layer).getRawPixels();
+                for (int i = 0; i < size; i++) {
+                    byte p = src[i];
+                    if (p != 0) out[i] = p;
+                }
+            } else {
+                int i = 0;
+                for (int y = 0; y < height; y++) {
+                    for (int x = 0; x < width; x++, i++) {
+                        int p = layer.getPixel(x, y);
+                        if (p != 0) out[i] = (byte) p;
+                    }
+                }
+            }
+        }
+    }
+
+    public boolean hasTranslucentLayers() {
+        for (int i = 0; i < layerCount; i++) {
+            Layer layer = layers[i];
+            if (layer != null && layer.isVisible()
+                    && layer.getOpacity() > 0 && layer.getOpacity() < 100) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // ARGB composite, incrementally updated from the layers' dirty regions.
+    // Layer indices are resolved through colorTable (Palette.getARGBTable);
+    // passing a different table recomposites everything.
+    public int[] composite(int[] colorTable) {
+        if (colorTable != this.colorTable) {
+            this.colorTable = colorTable;
+            invalidateComposite();
+        }
+        if (compositeBuffer == null) {
+            compositeBuffer = new int[width * height];
+            compositeDirty.add(0, 0, width, height);
+        }
+        boolean split = layerCachesEnabled && layerCount > 1;
+        if (split) {
+            prepareLayerCaches();
+        } else {
+            releaseLayerCaches();
+        }
+        for (int i = 0; i < layerCount; i++) {
+            DirtyRegion layerDirty = layers[i].getDirtyRegion();
+            if (layerDirty.isEmpty()) continue;
+            if (split) {
+                if (i > activeLayerIndex) belowDirty.add(layerDirty);
+                else if (i < activeLayerIndex) aboveDirty.add(layerDirty);
+            }
+            compositeDirty.add(layerDirty);
+            layerDirty.clear();
+        }
+        if (split) {
+            if (belowBuffer != null && !belowDirty.isEmpty()) {
+                belowDirty.clip(width, height);
+                compositeLayers(belowBuffer, activeLayerIndex + 1, layerCount - 1, belowDirty);
+            }
+            if (aboveBuffer != null && !aboveDirty.isEmpty()) {
+                aboveDirty.clip(width, height);
+                compositeAbove(aboveDirty);
+            }
+            belowDirty.clear();
+            aboveDirty.clear();
+        }
+        if (!compositeDirty.isEmpty()) {
+            compositeDirty.clip(width, height);
+            if (split) {
+                compositeSplit(compositeDirty);
+            } else {
+                compositeLayers(compositeBuffer, 0, layerCount - 1, compositeDirty);
+            }
+            compositeChanged.add(compositeDirty);
+            compositeDirty.clear();
+        }
+        return compositeBuffer;
+    }
+
+    private void prepareLayerCaches() {
+        int size = width * height;
+        if (activeLayerIndex < layerCount - 1) {
+            if (belowBuffer == null) {
+                belowBuffer = new int[size];
+                belowDirty.add(0, 0, width, height);
+            }
+        } else {
+            belowBuffer = null;
+        }
+        if (activeLayerIndex > 0) {
+            if (aboveBuffer == null) {
+                aboveBuffer = new int[size];
+                aboveDirty.add(0, 0, width, height);
+            }
+        } else {
+            aboveBuffer = null;
+        }
+    }
+
+    private void releaseLayerCaches() {
+        belowBuffer = null;
+        aboveBuffer = null;
+        belowDirty.clear();
+        aboveDirty.clear();
     }
 
-    public int[] composite() {
-        int[] result = new int[width * height];
-        for (int i = 0; i < result.length; i++) {
-            result[i] = 0x00000000;
+    private void compositeLayers(int[] result, int top, int bottom, DirtyRegion region) {
+        int rx = region.getX();
+        int ry = region.getY();
+        int rw = region.getWidth();
+        int rh = region.getHeight();
+        for (int y = ry; y < ry + rh; y++) {
+            int rowStart = y * width;
+            for (int x = rx; x < rx + rw; x++) {
+                result[rowStart + x] = 0x00000000;
+            }
         }
-        for (int layerIdx = layerCount - 1; layerIdx >= 0; layerIdx--) {
+        int[] table = colorTable;
+        for (int layerIdx = bottom; layerIdx >= top; layerIdx--) {
             Layer layer = layers[layerIdx];
             if (layer == null || !layer.isVisible()) continue;
             int opacity = layer.getOpacity();
-            for (int y = 0; y < height; y++) {
-                for (int x = 0; x < width; x++) {
+            if (opacity <= 0) continue;
+            for (int y = ry; y < ry + rh; y++) {
+                for (int x = rx; x < rx + rw; x++) {
+                    int layerPixel = layer.getPixel(x, y);
+                    if (layerPixel == 0) continue;
                     int idx = y * width + x;
+                    int color = table[layerPixel & 0xFF];
+                    result[idx] = opacity >= 100 ? color : blend(result[idx], color, opacity);
+                }
+            }
+        }
+    }
+
+    // The layers above the active one are folded into a single affine
+    // "over" term: colour in the low 24 bits, and in the top byte how much
+    // of whatever lies underneath is hidden (0 = untouched, 255 = opaque).
+    private void compositeAbove(DirtyRegion region) {
+        int rx = region.getX();
+        int ry = region.getY();
+        int rw = region.getWidth();
+        int rh = region.getHeight();
+        int[] result = aboveBuffer;
+        int[] table = colorTable;
+        for (int y = ry; y < ry + rh; y++) {
+            int rowStart = y * width;
+            for (int x = rx; x < rx + rw; x++) {
+                result[rowStart + x] = 0x00000000;
+            }
+        }
+        for (int layerIdx = activeLayerIndex - 1; layerIdx >= 0; layerIdx--) {
+            Layer layer = layers[layerIdx];
+            if (layer == null || !layer.isVisible()) continue;
+            int opacity = layer.getOpacity();
+            if (opacity <= 0) continue;
+            for (int y = ry; y < ry + rh; y++) {
+                for (int x = rx; x < rx + rw; x++) {
                     int layerPixel = layer.getPixel(x, y);
                     if (layerPixel == 0) continue;
-                    if (opacity < 100) {
-                        int existing = result[idx];
-                        int existingR = (existing >> 16) & 0xFF;
-                        int existingG = (existing >> 8) & 0xFF;
-                        int existingB = existing & 0xFF;
-                        int newR = (layerPixel >> 16) & 0xFF;
-                        int newG = (layerPixel >> 8) & 0xFF;
-                        int newB = layerPixel & 0xFF;
-                        int blendedR = (newR * opacity + existingR * (100 - opacity)) / 100;
-                        int blendedG = (newG * opacity + existingG * (100 - opacity)) / 100;
-                        int blendedB = (newB * opacity + existingB * (100 - opacity)) / 100;
-                        result[idx] = 0xFF000000 | (blendedR << 16) | (blendedG << 8) | blendedB;
-                    } else {
-                        result[idx] = layerPixel | 0xFF000000;
+                    int idx = y * width + x;
+                    int color = table[layerPixel & 0xFF];
+                    if (opacity >= 100) {
+                        result[idx] = color;
+                        continue;
+                    }
+                    int existing = result[idx];
+                    int keep = 255 - (existing >>> 24);
+                    keep = keep * (100 - opacity) / 100;
+                    result[idx] = ((255 - keep) << 24) | (blend(existing, color, opacity) & 0xFFFFFF);
+                }
+            }
+        }
+    }
+
+    private void compositeSplit(DirtyRegion region) {
+        int rx = region.getX();
+        int ry = region.getY();
+        int rw = region.getWidth();
+        int rh = region.getHeight();
+        int[] result = compositeBuffer;
+        int[] below = belowBuffer;
+        int[] above = aboveBuffer;
+        int[] table = colorTable;
+        Layer active = layers[activeLayerIndex];
+        int opacity = active.isVisible() ? active.getOpacity() : 0;
+        for (int y = ry; y < ry + rh; y++) {
+            for (int x = rx; x < rx + rw; x++) {
+                int idx = y * width + x;
+                int pixel = below != null ? below[idx] : 0;
+                if (opacity > 0) {
+                    int layerPixel = active.getPixel(x, y);
+                    if (layerPixel != 0) {
+                        pixel = blend(pixel, table[layerPixel & 0xFF], opacity);
                     }
                 }
+                if (above != null) {
+                    int over = above[idx];
+                    int cover = over >>> 24;
+                    if (cover == 255) {
+                        pixel = over | 0xFF000000;
+                    } else if (cover != 0) {
+                        int keep = 255 - cover;
+                        int r = ((over >> 16) & 0xFF) + ((pixel >> 16) & 0xFF) * keep / 255;
+                        int g = ((over >> 8) & 0xFF) + ((pixel >> 8) & 0xFF) * keep / 255;
+                        int b = (over & 0xFF) + (pixel & 0xFF) * keep / 255;
+                        pixel = 0xFF000000 | (r << 16) | (g << 8) | b;
+                    }
+                }
+                result[idx] = pixel;
+            }
+        }
+    }
+
+    private static int blend(int existing, int layerPixel, int opacity) {
+        if (opacity >= 100) {
+            return layerPixel;
+        }
+        int existingR = (existing >> 16) & 0xFF;
+        int existingG = (existing >> 8) & 0xFF;
+        int existingB = existing & 0xFF;
+        int newR = (layerPixel >> 16) & 0xFF;
+        int newG = (layerPixel >> 8) & 0xFF;
+        int newB = layerPixel & 0xFF;
+        int blendedR = (newR * opacity + existingR * (100 - opacity)) / 100;
+        int blendedG = (newG * opacity + existingG * (100 - opacity)) / 100;
+        int blendedB = (newB * opacity + existingB * (100 - opacity)) / 100;
+        return 0xFF000000 | (blendedR << 16) | (blendedG << 8) | blendedB;
+    }
+
+    public void takeChangedRegion(DirtyRegion out) {
+        out.add(compositeChanged);
+        compositeChanged.clear();
+    }
+
+    public void invalidateComposite() {
+        compositeDirty.add(0, 0, width, height);
+        invalidateLayerCaches();
+    }
+
+    private void invalidateLayerCaches() {
+        belowDirty.add(0, 0, width, height);
+        aboveDirty.add(0, 0, width, height);
+    }
+
+    public void setLayerCachesEnabled(boolean enabled) {
+        if (enabled == layerCachesEnabled) return;
+        layerCachesEnabled = enabled;
+        if (!enabled) {
+            releaseLayerCaches();
+        }
+    }
+
+    public void releaseCompositeCache() {
+        compositeBuffer = null;
+        releaseLayerCaches();
+    }
+
+    // Turns every layer; odd turns swap the frame size. The composite
+    // buffers keep their length, so they are only invalidated.
+    public void rotate(int quarterTurns) {
+        for (int i = 0; i < layerCount; i++) {
+            if (layers[i] instanceof PixelLayer) {
+                ((PixelLayer) layers[i]).rotate(quarterTurns);
             }
         }
-        return result;
+        if ((quarterTurns & 1) != 0) {
+            int temp = width;
+            width = height;
+            height = temp;
+        }
+        invalidateComposite();
+    }
+
+    public Layer[] getLayerStack() {
+        Layer[] stack = new Layer[layerCount];
+        System.arraycopy(layers, 0, stack, 0, layerCount);
+        return stack;
+    }
+
+    public void restoreLayerStack(Layer[] stack, int active) {
+        for (int i = 0; i < MAX_LAYERS; i++) {
+            layers[i] = i < stack.length ? stack[i] : null;
+        }
+        layerCount = stack.length;
+        activeLayerIndex = Math.max(0, Math.min(active, layerCount - 1));
+        invalidateComposite();
     }
 
     public int getWidth() { return width; }
@@ -151,8 +434,9 @@ public class Frame {
     public int getActiveLayerIndex() { return activeLayerIndex; }
 
     public void setActiveLayerIndex(int index) {
-        if (index >= 0 && index < layerCount) {
+        if (index >= 0 && index < layerCount && index != activeLayerIndex) {
             activeLayerIndex = index;
+            invalidateLayerCaches();
         }
     }
 
@@ -114,7 +114,9 @@ public class FrameMenu extends List implements CommandListener {
 
     private void addFrame() {
         Sprite sprite = midlet.getCurrentSprite();
+        canvas.beginStructureChange();
         int newIdx = sprite.addFrame();
+        canvas.endStructureChange();
         if (newIdx >= 0) {
             midlet.showAlert("Success",
                 "Frame " + (newIdx + 1) + " added!\n" +
@@ -132,7 +134,9 @@ public class FrameMenu extends List implements CommandListener {
     private void duplicateFrame() {
         Sprite sprite = midlet.getCurrentSprite();
         int currentIdx = sprite.getCurrentFrameIndex();
+        canvas.beginStructureChange();
         int newIdx = sprite.duplicateCurrentFrame();
+        canvas.endStructureChange();
 
         if (newIdx >= 0) {
             midlet.showAlert("Success",
@@ -154,7 +158,10 @@ public class FrameMenu extends List implements CommandListener {
             return;
         }
 
-        if (sprite.deleteFrame(currentIdx)) {
+        canvas.beginStructureChange();
+        boolean deleted = sprite.deleteFrame(currentIdx);
+        canvas.endStructureChange();
+        if (deleted) {
             midlet.showAlert("Success",
                 "Frame deleted!\nTotal: " + sprite.getFrameCount(),
                 AlertType.CONFIRMATION);
@@ -0,0 +1,136 @@
+import java.io.*;
+
+/**
+ * FrameRenderPipeline - Composite-once frame source for exporters
+ *
+ * - Walks the sprite's frame slots without touching its current frame
+ *   or the editor's composite caches
+ * - Indexed output: Frame.compositeIndexed()
+ * - ARGB output: resolved through Palette.getARGBTable(), blended for
+ *   layers below 100% opacity; transparent pixels become the background
+ *   (0 = fully transparent)
+ * - Each output is built at most once per frame, on first request, into
+ *   buffers reused across frames
+ */
+public class FrameRenderPipeline {
+
+    private Sprite sprite;
+    private int width;
+    private int height;
+    private int background;
+
+    private Frame frame;
+    private int frameIndex = -1;
+
+    private byte[] indices;
+    private int[] argb;
+    private boolean indicesReady;
+    private boolean argbReady;
+
+    public FrameRenderPipeline(Sprite sprite) {
+        this.sprite = sprite;
+        this.width = sprite.getWidth();
+        this.height = sprite.getHeight();
+    }
+
+    /**
+     * ARGB value used for transparent pixels in getARGB().
+     */
+    public void setBackground(int argb) {
+        if (argb != background) argbReady = false;
+        background = argb;
+    }
+
+    public int getWidth() { return width; }
+    public int getHeight() { return height; }
+    public Palette getPalette() { return sprite.getPalette(); }
+    public Frame getFrame() { return frame; }
+    public int getFrameIndex() { return frameIndex; }
+
+    /**
+     * Selects the frame in the given slot. Returns false for an empty
+     * slot.
+     */
+    public boolean render(int index) {
+        Frame f = sprite.getFrame(index);
+        if (f == null) return false;
+        frame = f;
+        frameIndex = index;
+        indicesReady = false;
+        argbReady = false;
+        return true;
+    }
+
+    /**
+     * Feeds every frame of the sprite to the sink. Returns the number
+     * of frames delivered.
+     */
+    public int run(FrameSink sink) throws IOException {
+        int count = 0;
+        for (int i = 0; i < Sprite.MAX_FRAMES; i++) {
+            if (!render(i)) continue;
+            sink.frame(this, count, frame);
+            count++;
+        }
+        return count;
+    }
+
+    public byte[] getIndices() {
+        if (!indicesReady) {
+            if (indices == null) indices = new byte[width * height];
+            frame.compositeIndexed(indices);
+            indicesReady = true;
+        }
+        return indices;
+    }
+
+    public int[] getARGB() {
+        if (!argbReady) {
+            if (argb == null) argb = new int[width * height];
+            compositeARGB(argb);
+            argbReady = true;
+        }
+        return argb;
+    }
+
+    private void compositeARGB(int[] out) {
+        int[] table = sprite.getPalette().getARGBTable();
+        int size = width * height;
+        if (!frame.hasTranslucentLayers()) {
+            byte[] src = getIndices();
+            for (int i = 0; i < size; i++) {
+                int p = src[i] & 0xFF;
+                out[i] = p != 0 ? table[p] : background;
+            }
+            return;
+        }
+
+        // Translucent layers blend with the background, or show at full
+        // strength where nothing is underneath
+        for (int i = 0; i < size; i++) {
+            out[i] = background;
+        }
+        for (int l = frame.getLayerCount() - 1; l >= 0; l--) {
+            Layer layer = frame.getLayer(l);
+            if (layer == null || !layer.isVisible()) continue;
+            int opacity = layer.getOpacity();
+            if (opacity <= 0) continue;
+            int i = 0;
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++, i++) {
+                    int p = layer.getPixel(x, y);
+                    if (p == 0) continue;
+                    int color = table[p & 0xFF];
+                    out[i] = opacity >= 100 || out[i] == 0 ? color : blend(out[i], color, opacity);
+                }
+            }
+        }
+    }
+
+    private static int blend(int under, int over, int opacity) {
+        int r = (((over >> 16) & 0xFF) * opacity + ((under >> 16) & 0xFF) * (100 - opacity)) / 100;
+        int g = (((over >> 8) & 0xFF) * opacity + ((under >> 8) & 0xFF) * (100 - opacity)) / 100;
+        int b = ((over & 0xFF) * opacity + (under & 0xFF) * (100 - opacity)) / 100;
+        return 0xFF000000 | (r << 16) | (g << 8) | b;
+    }
+}
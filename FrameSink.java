@@ -0,0 +1,13 @@
+import java.io.*;
+
+/**
+ * FrameSink - Receives the frames of a FrameRenderPipeline
+ *
+ * frame() is called once per frame, in order. Inside it the sink asks
+ * the pipeline for what it needs (getIndices() and/or getARGB()); the
+ * buffers are reused for the next frame, so copy anything kept.
+ */
+public interface FrameSink {
+
+    void frame(FrameRenderPipeline pipeline, int index, Frame frame) throws IOException;
+}
@@ -7,16 +7,46 @@ import java.io.*;
  * GIFExporter - Animated GIF export
  * 
  * GIF89a format with animation support:
- * - Global color table (256 colors)
- * - Per-frame delay based on FPS
+ * - Global color table sized to the palette (next power of two)
+ * - Optional local color tables for frames using few colors
+ * - Per-frame delay from Frame.getDuration()
+ * - Optional frame differencing (changed rectangle + transparency)
  * - Loop forever
- * - LZW compression (simplified)
+ * - LZW compression (LZWEncoder), code size from the palette size
  * 
  * Perfect for sharing pixel art animations!
  */
 public class GIFExporter {
     
-    public static boolean export(Sprite sprite, String filename, int fps, PixelArtists midlet) {
+    private static boolean optimize = true;
+    private static boolean localTables = true;
+    
+    /**
+     * Frame-differencing mode: later frames carry only the changed
+     * rectangle. Off writes every frame in full.
+     */
+    public static void setOptimize(boolean enabled) {
+        optimize = enabled;
+    }
+    
+    public static boolean isOptimize() {
+        return optimize;
+    }
+    
+    /**
+     * Local color tables: a frame that uses only a few palette entries
+     * gets its own smaller table when the shorter LZW codes save more
+     * than the table costs.
+     */
+    public static void setLocalTables(boolean enabled) {
+        localTables = enabled;
+    }
+    
+    public static boolean isLocalTables() {
+        return localTables;
+    }
+    
+    public static boolean export(Sprite sprite, String filename, PixelArtists midlet) {
         String savePath = FileManager.getBestSavePath();
         if (savePath == null) {
             midlet.showAlert("Error", "No writable storage found", AlertType.ERROR);
@@ -38,9 +68,13 @@ public class GIFExporter {
             
             int width = sprite.getWidth();
             int height = sprite.getHeight();
-            int delay = 100 / fps; // Delay in 1/100ths of a second
             
             Palette palette = sprite.getPalette();
+            int colorCount = palette.getColorCount();
+            // First unused table entry marks unchanged pixels
+            int transparent = optimize && colorCount < 256 ? colorCount : -1;
+            int tableBits = tableBits(transparent >= 0 ? colorCount + 1 : colorCount);
+            int[] colors = palette.getColors();
             
             // GIF Header
             dos.write("GIF89a".getBytes());
@@ -48,12 +82,13 @@ public class GIFExporter {
             // Logical Screen Descriptor
             writeShort(dos, width);
             writeShort(dos, height);
-            dos.write(0xF7); // Global color table flag + 8 bits
+            // Global color table flag, 8-bit color resolution, table size
+            dos.write(0xF0 | (tableBits - 1));
             dos.write(0); // Background color index
             dos.write(0); // Pixel aspect ratio
             
-            // Global Color Table (256 colors)
-            writeColorTable(dos, palette);
+            // Global Color Table
+            writeColorTable(dos, colors, colorCount, 1 << tableBits);
             
             // Netscape Extension (for looping)
             dos.write(0x21); // Extension introducer
@@ -66,15 +101,9 @@ public class GIFExporter {
             dos.write(0); // Block terminator
             
             // Write each frame
-            int savedFrame = sprite.getCurrentFrameIndex();
-            for (int f = 0; f < frameCount; f++) {
-                sprite.setCurrentFrameIndex(f);
-                int[] pixels = sprite.compositeCurrentFrame();
-                if (pixels != null) {
-                    writeFrame(dos, pixels, width, height, delay, palette);
-                }
-            }
-            sprite.setCurrentFrameIndex(savedFrame);
+            FrameWriter writer = new FrameWriter(dos, colors, colorCount, tableBits,
+                                                 width, height, transparent);
+            new FrameRenderPipeline(sprite).run(writer);
             
             // GIF Trailer
             dos.write(0x3B);
@@ -92,78 +121,210 @@ public class GIFExporter {
         }
     }
     
-    private static void writeFrame(DataOutputStream dos, int[] pixels, int width, int height, 
-                                   int delay, Palette palette) throws IOException {
-        // Graphics Control Extension
-        dos.write(0x21); // Extension introducer
-        dos.write(0xF9); // Graphic control label
-        dos.write(4); // Block size
-        dos.write(0x04); // Disposal method: restore to background
-        writeShort(dos, delay); // Delay time
-        dos.write(0); // Transparent color index (0 = transparent)
-        dos.write(0); // Block terminator
-        
-        // Image Descriptor
-        dos.write(0x2C); // Image separator
-        writeShort(dos, 0); // Image left
-        writeShort(dos, 0); // Image top
-        writeShort(dos, width); // Image width
-        writeShort(dos, height); // Image height
-        dos.write(0); // No local color table
+    /**
+     * Frame-differencing: only the bounding box of pixels that changed
+     * since the previous frame is written. Inside it, unchanged pixels
+     * become the transparent index (if there is one), so with "do not
+     * dispose" the previous frame shows through. Leaves previous equal
+     * to the source frame; current is overwritten.
+     */
+    private static void writeFrameDelta(FrameWriter writer, byte[] current, byte[] previous,
+                                        int width, int height, int delay,
+                                        int transparent) throws IOException {
+        int minX = width, minY = -1, maxX = -1, maxY = -1;
+        for (int y = 0; y < height; y++) {
+            int row = y * width;
+            int x0 = 0;
+            while (x0 < width && current[row + x0] == previous[row + x0]) x0++;
+            if (x0 == width) continue;
+            int x1 = width - 1;
+            while (current[row + x1] == previous[row + x1]) x1--;
+            if (minY < 0) minY = y;
+            maxY = y;
+            if (x0 < minX) minX = x0;
+            if (x1 > maxX) maxX = x1;
+        }
         
-        // Convert pixels to palette indices
-        byte[] indices = new byte[width * height];
-        for (int i = 0; i < pixels.length; i++) {
-            int color = pixels[i];
-            if (color == 0) {
-                indices[i] = 0; // Transparent
-            } else {
-                indices[i] = (byte)(palette.findNearestColor(color) & 0xFF);
+        if (minY < 0) {
+            // Nothing changed; a single pixel keeps the frame's delay
+            if (transparent >= 0) {
+                current[0] = (byte) transparent;
             }
+            writer.write(current, width, 0, 0, 1, 1, delay, transparent);
+            return;
         }
         
-        // Image Data with LZW compression
-        writeLZWData(dos, indices);
+        int rw = maxX - minX + 1;
+        int rh = maxY - minY + 1;
+        for (int y = minY; y <= maxY; y++) {
+            int i = y * width + minX;
+            int end = i + rw;
+            for (; i < end; i++) {
+                byte c = current[i];
+                if (c == previous[i]) {
+                    if (transparent >= 0) current[i] = (byte) transparent;
+                } else {
+                    previous[i] = c;
+                }
+            }
+        }
+        writer.write(current, width, minX, minY, rw, rh, delay, transparent);
     }
     
-    private static void writeLZWData(DataOutputStream dos, byte[] data) throws IOException {
-        // LZW minimum code size
-        dos.write(8);
-        
-        // Write data in sub-blocks (simplified - no actual LZW compression)
-        int pos = 0;
-        while (pos < data.length) {
-            int blockSize = Math.min(255, data.length - pos);
-            dos.write(blockSize);
-            dos.write(data, pos, blockSize);
-            pos += blockSize;
-        }
-        
-        // Block terminator
-        dos.write(0);
+    /**
+     * Bits needed for a color table holding count entries (1..8).
+     */
+    private static int tableBits(int count) {
+        int bits = 1;
+        while ((1 << bits) < count && bits < 8) bits++;
+        return bits;
     }
     
-    private static void writeColorTable(DataOutputStream dos, Palette palette) throws IOException {
-        int colorCount = palette.getColorCount();
-        
-        // Write palette colors
-        for (int i = 0; i < colorCount; i++) {
-            int color = palette.getColor(i);
+    /**
+     * Writes count colors, padded with black to tableSize entries.
+     */
+    private static void writeColorTable(DataOutputStream dos, int[] colors, int count,
+                                        int tableSize) throws IOException {
+        for (int i = 0; i < tableSize; i++) {
+            int color = i < count ? colors[i] : 0;
             dos.write((color >> 16) & 0xFF); // R
             dos.write((color >> 8) & 0xFF);  // G
             dos.write(color & 0xFF);         // B
         }
-        
-        // Pad to 256 colors
-        for (int i = colorCount; i < 256; i++) {
-            dos.write(0);
-            dos.write(0);
-            dos.write(0);
-        }
     }
     
     private static void writeShort(DataOutputStream dos, int value) throws IOException {
         dos.write(value & 0xFF);
         dos.write((value >> 8) & 0xFF);
     }
+    
+    /**
+     * Writes one image (control extension, descriptor, optional local
+     * color table, LZW data) per pipeline frame and owns the scratch
+     * state shared by all frames of an export.
+     */
+    private static class FrameWriter implements FrameSink {
+        private DataOutputStream dos;
+        private int[] colors;
+        private int colorCount;
+        private int globalBits;
+        private int width;
+        private int height;
+        private int transparent;
+        private byte[] current;
+        private byte[] previous;
+        private LZWEncoder lzw = new LZWEncoder();
+        private boolean[] used = new boolean[256];
+        private int[] map = new int[256];
+        private int[] localColors = new int[256];
+        
+        FrameWriter(DataOutputStream dos, int[] colors, int colorCount, int globalBits,
+                    int width, int height, int transparent) {
+            this.dos = dos;
+            this.colors = colors;
+            this.colorCount = colorCount;
+            this.globalBits = globalBits;
+            this.width = width;
+            this.height = height;
+            this.transparent = transparent;
+            this.current = new byte[width * height];
+            this.previous = optimize ? new byte[width * height] : null;
+        }
+        
+        public void frame(FrameRenderPipeline pipeline, int index, Frame frame) throws IOException {
+            // Frame duration in ms to 1/100ths of a second; most
+            // viewers treat delays below 2 as "as fast as possible"
+            int delay = Math.max(2, (frame.getDuration() + 5) / 10);
+            // Work on a copy: differencing and local tables rewrite it
+            System.arraycopy(pipeline.getIndices(), 0, current, 0, current.length);
+            if (previous == null || index == 0) {
+                if (previous != null) System.arraycopy(current, 0, previous, 0, current.length);
+                write(current, width, 0, 0, width, height, delay, -1);
+            } else {
+                writeFrameDelta(this, current, previous, width, height, delay, transparent);
+            }
+        }
+        
+        /**
+         * Writes the w x h rectangle at (x, y). The rectangle's indices
+         * may be rewritten in place when a local table is used.
+         */
+        void write(byte[] indices, int stride, int x, int y, int w, int h,
+                   int delay, int transparent) throws IOException {
+            int bits = globalBits;
+            int localCount = 0;
+            if (localTables) {
+                localCount = buildLocalTable(indices, stride, x, y, w, h);
+                int localBits = tableBits(localCount);
+                // One bit less per pixel has to pay for the table itself
+                if (localBits < globalBits
+                        && (w * h * (globalBits - localBits)) / 8 > 3 << localBits) {
+                    bits = localBits;
+                    for (int row = 0; row < h; row++) {
+                        int i = (y + row) * stride + x;
+                        int end = i + w;
+                        for (; i < end; i++) {
+                            indices[i] = (byte) map[indices[i] & 0xFF];
+                        }
+                    }
+                    if (transparent >= 0) {
+                        transparent = used[transparent] ? map[transparent] : -1;
+                    }
+                }
+            }
+            
+            // Graphics Control Extension
+            dos.write(0x21); // Extension introducer
+            dos.write(0xF9); // Graphic control label
+            dos.write(4); // Block size
+            // Disposal method 1: do not dispose, plus transparency flag
+            dos.write(0x04 | (transparent >= 0 ? 0x01 : 0x00));
+            writeShort(dos, delay); // Delay time
+            dos.write(transparent >= 0 ? transparent : 0); // Transparent color index
+            dos.write(0); // Block terminator
+            
+            // Image Descriptor
+            dos.write(0x2C); // Image separator
+            writeShort(dos, x); // Image left
+            writeShort(dos, y); // Image top
+            writeShort(dos, w); // Image width
+            writeShort(dos, h); // Image height
+            if (bits != globalBits) {
+                dos.write(0x80 | (bits - 1)); // Local color table flag + size
+                writeColorTable(dos, localColors, localCount, 1 << bits);
+            } else {
+                dos.write(0); // No local color table
+            }
+            
+            // Image Data with LZW compression
+            lzw.encode(dos, indices, stride, x, y, w, h, LZWEncoder.minCodeSize(1 << bits));
+        }
+        
+        /**
+         * Collects the indices used inside the rectangle into localColors
+         * and fills map (global index -> local index). Returns the number
+         * of local entries.
+         */
+        private int buildLocalTable(byte[] indices, int stride, int x, int y, int w, int h) {
+            for (int i = 0; i < 256; i++) {
+                used[i] = false;
+            }
+            for (int row = 0; row < h; row++) {
+                int i = (y + row) * stride + x;
+                int end = i + w;
+                for (; i < end; i++) {
+                    used[indices[i] & 0xFF] = true;
+                }
+            }
+            int count = 0;
+            for (int i = 0; i < 256; i++) {
+                if (used[i]) {
+                    map[i] = count;
+                    // The transparent slot past the palette keeps black
+                    localColors[count++] = i < colorCount ? colors[i] : 0;
+                }
+            }
+            return count;
+        }
+    }
 }
@@ -35,25 +35,16 @@ public class JPGExporter {
             
             int width = sprite.getWidth();
             int height = sprite.getHeight();
-            int[] pixels = sprite.compositeCurrentFrame();
-            
-            if (pixels == null) {
+            FrameRenderPipeline pipeline = new FrameRenderPipeline(sprite);
+            if (!pipeline.render(sprite.getCurrentFrameIndex())) {
                 dos.close();
                 fc.close();
                 return false;
             }
             
-            // Convert to RGB array
-            int[] rgbPixels = new int[width * height];
-            Palette palette = sprite.getPalette();
-            for (int i = 0; i < pixels.length; i++) {
-                int colorIdx = pixels[i] & 0xFF;
-                if (colorIdx == 0) {
-                    rgbPixels[i] = 0xFFFFFF; // White background
-                } else {
-                    rgbPixels[i] = palette.getColor(colorIdx);
-                }
-            }
+            // RGB with a white background
+            pipeline.setBackground(0xFFFFFFFF);
+            int[] rgbPixels = pipeline.getARGB();
             
             // JPEG Header
             writeJPEGHeader(dos, width, height);
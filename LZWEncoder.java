@@ -0,0 +1,181 @@
+import java.io.*;
+
+/**
+ * LZWEncoder - Variable-width LZW for GIF image data
+ *
+ * - Dictionary is an open-addressed hash table in two int arrays
+ *   (key = suffix << 12 | prefix, value = code), reused across frames
+ * - Codes grow from minCodeSize + 1 to 12 bits; a clear code is sent
+ *   and the table reset once 4096 codes are in use
+ * - Output is packed LSB-first into 255-byte sub-blocks
+ *
+ * encode() writes the minimum code size byte, the sub-blocks and the
+ * block terminator for one image (or a rectangle of a larger buffer).
+ */
+public class LZWEncoder {
+
+    private static final int MAX_BITS = 12;
+    private static final int MAX_CODES = 1 << MAX_BITS;
+
+    // Prime a bit above MAX_CODES for a load factor of about 80%
+    private static final int HSIZE = 5003;
+    private static final int HSHIFT = 4;
+
+    private int[] hashKeys = new int[HSIZE];
+    private int[] hashCodes = new int[HSIZE];
+
+    private OutputStream out;
+    private int initBits;
+    private int codeBits;
+    private int maxCode;
+    private int nextCode;
+    private int clearCode;
+    private int endCode;
+    private boolean clearPending;
+
+    private int bitBuf;
+    private int bitCount;
+    private byte[] packet = new byte[256];
+    private int packetSize;
+
+    /**
+     * Smallest valid GIF code size that can hold colorCount indices.
+     */
+    public static int minCodeSize(int colorCount) {
+        int bits = 2;
+        while ((1 << bits) < colorCount && bits < 8) bits++;
+        return bits;
+    }
+
+    public void encode(OutputStream out, byte[] pixels, int width, int height,
+                       int minCodeSize) throws IOException {
+        encode(out, pixels, width, 0, 0, width, height, minCodeSize);
+    }
+
+    /**
+     * Encodes the w x h rectangle at (x, y) of an image with the given
+     * row stride.
+     */
+    public void encode(OutputStream out, byte[] pixels, int stride, int x, int y,
+                       int w, int h, int minCodeSize) throws IOException {
+        this.out = out;
+        out.write(minCodeSize);
+
+        initBits = minCodeSize + 1;
+        clearCode = 1 << minCodeSize;
+        endCode = clearCode + 1;
+        codeBits = initBits;
+        maxCode = (1 << codeBits) - 1;
+        nextCode = clearCode + 2;
+        clearPending = false;
+        bitBuf = 0;
+        bitCount = 0;
+        packetSize = 0;
+        clearTable();
+
+        output(clearCode);
+
+        if (w > 0 && h > 0) {
+            int prefix = pixels[y * stride + x] & 0xFF;
+            boolean first = true;
+            for (int row = 0; row < h; row++) {
+                int i = (y + row) * stride + x;
+                int end = i + w;
+                if (first) {
+                    i++;
+                    first = false;
+                }
+                for (; i < end; i++) {
+                    int c = pixels[i] & 0xFF;
+                    int key = (c << MAX_BITS) | prefix;
+                    int slot = (c << HSHIFT) ^ prefix;
+
+                    if (hashKeys[slot] == key) {
+                        prefix = hashCodes[slot];
+                        continue;
+                    }
+                    if (hashKeys[slot] >= 0) {
+                        // Secondary probe
+                        int step = slot == 0 ? 1 : HSIZE - slot;
+                        boolean found = false;
+                        do {
+                            slot -= step;
+                            if (slot < 0) slot += HSIZE;
+                            if (hashKeys[slot] == key) {
+                                found = true;
+                                break;
+                            }
+                        } while (hashKeys[slot] >= 0);
+                        if (found) {
+                            prefix = hashCodes[slot];
+                            continue;
+                        }
+                    }
+
+                    output(prefix);
+                    prefix = c;
+                    if (nextCode < MAX_CODES) {
+                        hashCodes[slot] = nextCode++;
+                        hashKeys[slot] = key;
+                    } else {
+                        clearTable();
+                        nextCode = clearCode + 2;
+                        clearPending = true;
+                        output(clearCode);
+                    }
+                }
+            }
+            output(prefix);
+        }
+        output(endCode);
+
+        if (bitCount > 0) {
+            addByte(bitBuf & 0xFF);
+            bitBuf = 0;
+            bitCount = 0;
+        }
+        flushPacket();
+        out.write(0); // Block terminator
+        this.out = null;
+    }
+
+    private void clearTable() {
+        for (int i = 0; i < HSIZE; i++) {
+            hashKeys[i] = -1;
+        }
+    }
+
+    private void output(int code) throws IOException {
+        bitBuf |= code << bitCount;
+        bitCount += codeBits;
+        while (bitCount >= 8) {
+            addByte(bitBuf & 0xFF);
+            bitBuf >>>= 8;
+            bitCount -= 8;
+        }
+
+        // The decoder widens its codes as soon as the next code no
+        // longer fits, so follow it here
+        if (clearPending) {
+            codeBits = initBits;
+            maxCode = (1 << codeBits) - 1;
+            clearPending = false;
+        } else if (nextCode > maxCode && codeBits < MAX_BITS) {
+            codeBits++;
+            maxCode = codeBits == MAX_BITS ? MAX_CODES : (1 << codeBits) - 1;
+        }
+    }
+
+    private void addByte(int b) throws IOException {
+        packet[packetSize++] = (byte) b;
+        if (packetSize == 255) flushPacket();
+    }
+
+    private void flushPacket() throws IOException {
+        if (packetSize > 0) {
+            out.write(packetSize);
+            out.write(packet, 0, packetSize);
+            packetSize = 0;
+        }
+    }
+}
@@ -6,6 +6,7 @@ public abstract class Layer {
     protected int opacity;
     protected int width;
     protected int height;
+    protected DirtyRegion dirty;
     
     public Layer(int width, int height, String name) {
         this.width = width;
@@ -14,6 +15,7 @@ public abstract class Layer {
         this.visible = true;
         this.locked = false;
         this.opacity = 100;
+        this.dirty = new DirtyRegion();
     }
     
     public abstract int getPixel(int x, int y);
@@ -25,11 +27,32 @@ public abstract class Layer {
     public String getName() { return name; }
     public void setName(String n) { this.name = n; }
     public boolean isVisible() { return visible; }
-    public void setVisible(boolean v) { this.visible = v; }
+    public void setVisible(boolean v) {
+        if (v != visible) markAllDirty();
+        this.visible = v;
+    }
     public boolean isLocked() { return locked; }
     public void setLocked(boolean l) { this.locked = l; }
     public int getOpacity() { return opacity; }
-    public void setOpacity(int o) { this.opacity = Math.max(0, Math.min(100, o)); }
+    public void setOpacity(int o) {
+        int clamped = Math.max(0, Math.min(100, o));
+        if (clamped != opacity) markAllDirty();
+        this.opacity = clamped;
+    }
     public int getWidth() { return width; }
     public int getHeight() { return height; }
+    
+    public void markDirty(int x, int y, int w, int h) {
+        if (x < 0) { w += x; x = 0; }
+        if (y < 0) { h += y; y = 0; }
+        if (x + w > width) w = width - x;
+        if (y + h > height) h = height - y;
+        dirty.add(x, y, w, h);
+    }
+    
+    public void markAllDirty() {
+        dirty.add(0, 0, width, height);
+    }
+    
+    public DirtyRegion getDirtyRegion() { return dirty; }
 }
\ No newline at end of file
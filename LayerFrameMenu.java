@@ -144,7 +144,10 @@ public class LayerFrameMenu extends List implements CommandListener {
         
         // Add Layer (idx = baseIdx + 1)
         if (idx == baseIdx + 1) {
-            if (frame.addNewPixelLayer("Layer " + (layerCount + 1))) {
+            canvas.beginStructureChange();
+            boolean added = frame.addNewPixelLayer("Layer " + (layerCount + 1));
+            canvas.endStructureChange();
+            if (added) {
                 midlet.showAlert("Layer", "Layer added!", AlertType.INFO);
                 midlet.vibrate(100);
             } else {
@@ -161,7 +164,10 @@ public class LayerFrameMenu extends List implements CommandListener {
         
         // Delete Layer (idx = baseIdx + 1)
         if (idx == baseIdx + 1) {
-            if (frame.deleteLayer(frame.getActiveLayerIndex())) {
+            canvas.beginStructureChange();
+            boolean deleted = frame.deleteLayer(frame.getActiveLayerIndex());
+            canvas.endStructureChange();
+            if (deleted) {
                 midlet.showAlert("Layer", "Layer deleted!", AlertType.INFO);
                 midlet.vibrate(100);
             } else {
@@ -173,7 +179,10 @@ public class LayerFrameMenu extends List implements CommandListener {
         
         // Move Up (idx = baseIdx + 2)
         if (idx == baseIdx + 2) {
-            if (frame.moveLayerUp(frame.getActiveLayerIndex())) {
+            canvas.beginStructureChange();
+            boolean moved = frame.moveLayerUp(frame.getActiveLayerIndex());
+            canvas.endStructureChange();
+            if (moved) {
                 midlet.showAlert("Layer", "Moved up!", AlertType.INFO);
                 midlet.vibrate(50);
             } else {
@@ -185,7 +194,10 @@ public class LayerFrameMenu extends List implements CommandListener {
         
         // Move Down (idx = baseIdx + 3)
         if (idx == baseIdx + 3) {
-            if (frame.moveLayerDown(frame.getActiveLayerIndex())) {
+            canvas.beginStructureChange();
+            boolean moved = frame.moveLayerDown(frame.getActiveLayerIndex());
+            canvas.endStructureChange();
+            if (moved) {
                 midlet.showAlert("Layer", "Moved down!", AlertType.INFO);
                 midlet.vibrate(50);
             } else {
@@ -199,7 +211,9 @@ public class LayerFrameMenu extends List implements CommandListener {
         if (idx == baseIdx + 4) {
             Layer layer = frame.getActiveLayer();
             if (layer != null) {
+                canvas.beginStructureChange();
                 layer.setVisible(!layer.isVisible());
+                canvas.endStructureChange();
                 midlet.showAlert("Layer", "Visibility: " + (layer.isVisible() ? "ON" : "OFF"), AlertType.INFO);
                 midlet.vibrate(50);
             }
@@ -209,7 +223,10 @@ public class LayerFrameMenu extends List implements CommandListener {
         
         // Merge Down (idx = baseIdx + 5)
         if (idx == baseIdx + 5) {
-            if (frame.mergeLayerDown()) {
+            canvas.beginStructureChange();
+            boolean merged = frame.mergeLayerDown();
+            canvas.endStructureChange();
+            if (merged) {
                 midlet.showAlert("Layer", "Merged down!", AlertType.INFO);
                 midlet.vibrate(100);
             } else {
@@ -256,7 +273,9 @@ public class LayerFrameMenu extends List implements CommandListener {
         
         // Add Frame (idx = baseIdx + 1)
         if (idx == baseIdx + 1) {
+            canvas.beginStructureChange();
             int newIdx = sprite.addFrame();
+            canvas.endStructureChange();
             if (newIdx >= 0) {
                 midlet.showAlert("Frame", "Frame " + (newIdx + 1) + " added!", AlertType.INFO);
                 midlet.vibrate(100);
@@ -269,7 +288,9 @@ public class LayerFrameMenu extends List implements CommandListener {
         
         // Duplicate Frame (idx = baseIdx + 2)
         if (idx == baseIdx + 2) {
+            canvas.beginStructureChange();
             int newIdx = sprite.duplicateCurrentFrame();
+            canvas.endStructureChange();
             if (newIdx >= 0) {
                 midlet.showAlert("Frame", "Frame duplicated!", AlertType.INFO);
                 midlet.vibrate(100);
@@ -287,7 +308,10 @@ public class LayerFrameMenu extends List implements CommandListener {
         
         // Delete Frame (idx = baseIdx + 1)
         if (idx == baseIdx + 1) {
-            if (sprite.deleteFrame(sprite.getCurrentFrameIndex())) {
+            canvas.beginStructureChange();
+            boolean deleted = sprite.deleteFrame(sprite.getCurrentFrameIndex());
+            canvas.endStructureChange();
+            if (deleted) {
                 midlet.showAlert("Frame", "Frame deleted!", AlertType.INFO);
                 midlet.vibrate(100);
             } else {
@@ -332,4 +356,4 @@ public class LayerFrameMenu extends List implements CommandListener {
         LayerFrameMenu menu = new LayerFrameMenu(midlet, canvas);
         midlet.getDisplay().setCurrent(menu);
     }
-}
\ No newline at end of file
+}
\ No newline at end of file
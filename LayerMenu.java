@@ -129,7 +129,10 @@ public class LayerMenu extends List implements CommandListener {
         int layerCount = frame.getLayerCount();
         String layerName = "Layer " + (layerCount + 1);
 
-        if (frame.addNewPixelLayer(layerName)) {
+        canvas.beginStructureChange();
+        boolean added = frame.addNewPixelLayer(layerName);
+        canvas.endStructureChange();
+        if (added) {
             midlet.showAlert("Success",
                 "Layer added!\n" +
                 "Name: " + layerName + "\n" +
@@ -154,7 +157,10 @@ public class LayerMenu extends List implements CommandListener {
         int activeIdx = frame.getActiveLayerIndex();
         String layerName = frame.getLayer(activeIdx).getName();
 
-        if (frame.deleteLayer(activeIdx)) {
+        canvas.beginStructureChange();
+        boolean deleted = frame.deleteLayer(activeIdx);
+        canvas.endStructureChange();
+        if (deleted) {
             midlet.showAlert("Success",
                 "Layer deleted: " + layerName + "\n" +
                 "Remaining layers: " + frame.getLayerCount(),
@@ -172,7 +178,9 @@ public class LayerMenu extends List implements CommandListener {
         Frame frame = sprite.getCurrentFrame();
         Layer layer = frame.getActiveLayer();
         if (layer != null) {
+            canvas.beginStructureChange();
             layer.setVisible(!layer.isVisible());
+            canvas.endStructureChange();
             String status = layer.isVisible() ? "Visible" : "Hidden";
             midlet.showAlert("Layer", layer.getName() + ": " + status, AlertType.INFO);
             midlet.vibrate(50);
@@ -214,7 +222,9 @@ public class LayerMenu extends List implements CommandListener {
                         case 2: opacity = 50; break;
                         case 3: opacity = 25; break;
                     }
+                    canvas.beginStructureChange();
                     finalLayer.setOpacity(opacity);
+                    canvas.endStructureChange();
                     midlet.showAlert("Opacity", "Set to " + opacity + "%", AlertType.INFO);
                     midlet.vibrate(50);
                     canvas.repaint();
@@ -231,7 +241,10 @@ public class LayerMenu extends List implements CommandListener {
         Sprite sprite = midlet.getCurrentSprite();
         Frame frame = sprite.getCurrentFrame();
         int activeIdx = frame.getActiveLayerIndex();
-        if (frame.moveLayerUp(activeIdx)) {
+        canvas.beginStructureChange();
+        boolean moved = frame.moveLayerUp(activeIdx);
+        canvas.endStructureChange();
+        if (moved) {
             midlet.showAlert("Layer", "Moved up", AlertType.INFO);
             midlet.vibrate(50);
             buildMenu();
@@ -245,7 +258,10 @@ public class LayerMenu extends List implements CommandListener {
         Sprite sprite = midlet.getCurrentSprite();
         Frame frame = sprite.getCurrentFrame();
         int activeIdx = frame.getActiveLayerIndex();
-        if (frame.moveLayerDown(activeIdx)) {
+        canvas.beginStructureChange();
+        boolean moved = frame.moveLayerDown(activeIdx);
+        canvas.endStructureChange();
+        if (moved) {
             midlet.showAlert("Layer", "Moved down", AlertType.INFO);
             midlet.vibrate(50);
             buildMenu();
@@ -258,7 +274,10 @@ public class LayerMenu extends List implements CommandListener {
     private void mergeDown() {
         Sprite sprite = midlet.getCurrentSprite();
         Frame frame = sprite.getCurrentFrame();
-        if (frame.mergeLayerDown()) {
+        canvas.beginStructureChange();
+        boolean merged = frame.mergeLayerDown();
+        canvas.endStructureChange();
+        if (merged) {
             midlet.showAlert("Success", "Layer merged down!", AlertType.CONFIRMATION);
             midlet.vibrate(100);
             buildMenu();
@@ -276,7 +295,9 @@ public class LayerMenu extends List implements CommandListener {
             return;
         }
 
+        canvas.beginStructureChange();
         frame.flattenLayers();
+        canvas.endStructureChange();
         midlet.showAlert("Success", "All layers flattened!", AlertType.CONFIRMATION);
         midlet.vibrate(100);
         buildMenu();
@@ -40,7 +40,7 @@ public class MP4Exporter {
         
         try {
             // Create subdirectory for sequence
-            String sequenceDir = savePath + baseFilename + "_sequence/";
+            final String sequenceDir = savePath + baseFilename + "_sequence/";
             FileConnection fcDir = (FileConnection) Connector.open(sequenceDir, Connector.READ_WRITE);
             if (!fcDir.exists()) {
                 fcDir.mkdir();
@@ -49,29 +49,23 @@ public class MP4Exporter {
             
             midlet.showAlert("Exporting", "Exporting " + frameCount + " frames...", AlertType.INFO);
             
-            int savedFrame = sprite.getCurrentFrameIndex();
-            
             // Export each frame as numbered PNG
-            for (int f = 0; f < frameCount; f++) {
-                sprite.setCurrentFrameIndex(f);
-                int[] pixels = sprite.compositeCurrentFrame();
-                if (pixels == null) continue;
-                
-                // Zero-padded frame number (frame_001.png, frame_002.png, etc.)
-                String frameNum = String.valueOf(f + 1);
-                while (frameNum.length() < 3) {
-                    frameNum = "0" + frameNum;
+            new FrameRenderPipeline(sprite).run(new FrameSink() {
+                public void frame(FrameRenderPipeline pipeline, int index, Frame frame)
+                        throws IOException {
+                    // Zero-padded frame number (frame_001.png, frame_002.png, etc.)
+                    String frameNum = String.valueOf(index + 1);
+                    while (frameNum.length() < 3) {
+                        frameNum = "0" + frameNum;
+                    }
+                    exportFrameAsPNG(sequenceDir + "frame_" + frameNum, pipeline);
+                    
+                    // Small delay to avoid overwhelming file system
+                    try {
+                        Thread.sleep(50);
+                    } catch (InterruptedException e) {}
                 }
-                String frameFilename = "frame_" + frameNum;
-                
-                // Export as PNG
-                exportFrameAsPNG(sequenceDir + frameFilename, sprite, midlet);
-                
-                // Small delay to avoid overwhelming file system
-                Thread.sleep(50);
-            }
-            
-            sprite.setCurrentFrameIndex(savedFrame);
+            });
             
             // Create info file with FFmpeg command
             createInfoFile(sequenceDir, frameCount, midlet.currentFPS);
@@ -91,59 +85,31 @@ public class MP4Exporter {
         }
     }
     
-    private static void exportFrameAsPNG(String fullPath, Sprite sprite, PixelArtists midlet) throws Exception {
+    private static void exportFrameAsPNG(String fullPath, FrameRenderPipeline pipeline) throws IOException {
         FileConnection fc = (FileConnection) Connector.open(fullPath + ".png", Connector.READ_WRITE);
         if (!fc.exists()) fc.create();
         DataOutputStream dos = fc.openDataOutputStream();
         
-        int width = sprite.getWidth();
-        int height = sprite.getHeight();
-        int[] pixels = sprite.compositeCurrentFrame();
-        Palette palette = sprite.getPalette();
-        
-        // Simple PNG export (same as PNGExporter but inline)
-        // PNG Signature
-        dos.write(0x89);
-        dos.write('P'); dos.write('N'); dos.write('G');
-        dos.write(0x0D); dos.write(0x0A); dos.write(0x1A); dos.write(0x0A);
-        
-        // IHDR Chunk (simplified)
-        dos.writeInt(13);
-        dos.write("IHDR".getBytes());
-        dos.writeInt(width);
-        dos.writeInt(height);
-        dos.write(8); // Bit depth
-        dos.write(2); // Color type: RGB
-        dos.write(0); dos.write(0); dos.write(0);
-        dos.writeInt(0); // CRC (simplified)
+        int width = pipeline.getWidth();
+        int height = pipeline.getHeight();
+        byte[] indices = pipeline.getIndices();
+        Palette palette = pipeline.getPalette();
         
-        // IDAT Chunk (image data - simplified, no compression)
-        int dataSize = height * (1 + width * 3);
-        dos.writeInt(dataSize);
-        dos.write("IDAT".getBytes());
+        // Indexed PNG; transparent pixels become a white background
+        int[] colors = palette.getColors();
+        int colorCount = palette.getColorCount();
+        if (colorCount == 0) {
+            colors = new int[1];
+            colorCount = 1;
+        }
+        colors[0] = 0xFFFFFF;
         
+        PNGWriter png = new PNGWriter(dos, width, height, colors, colorCount);
+        png.setFilterMode(PNGFilter.MODE_UP);
         for (int y = 0; y < height; y++) {
-            dos.write(0); // Filter type
-            for (int x = 0; x < width; x++) {
-                int idx = y * width + x;
-                int color = pixels[idx];
-                if (color == 0) {
-                    color = 0xFFFFFF; // White background
-                } else {
-                    color = palette.getColor(color & 0xFF);
-                }
-                dos.write((color >> 16) & 0xFF); // R
-                dos.write((color >> 8) & 0xFF);  // G
-                dos.write(color & 0xFF);         // B
-            }
+            png.writeRow(indices, y * width);
         }
-        
-        dos.writeInt(0); // CRC
-        
-        // IEND Chunk
-        dos.writeInt(0);
-        dos.write("IEND".getBytes());
-        dos.writeInt(0);
+        png.finish();
         
         dos.flush();
         dos.close();
@@ -13,11 +13,47 @@ import java.io.*;
  * - IDAT chunk (compressed image data)
  * - IEND chunk (end marker)
  * 
- * Uses DEFLATE compression for smaller files
+ * Uses DEFLATE compression for smaller files. Encoding is streamed
+ * row by row through PNGWriter, so IDAT is never built in memory.
  */
 public class PNGExporter {
     
+    private static int compressionLevel = ZlibEncoder.LEVEL_DEFAULT;
+    private static int filterMode = PNGFilter.MODE_ADAPTIVE;
+    
+    /**
+     * Speed/size trade-off for IDAT, 0 (stored) to 9 (smallest).
+     */
+    public static void setCompressionLevel(int level) {
+        compressionLevel = Math.max(ZlibEncoder.LEVEL_STORED, Math.min(ZlibEncoder.LEVEL_BEST, level));
+    }
+    
+    public static int getCompressionLevel() {
+        return compressionLevel;
+    }
+    
+    /**
+     * PNGFilter.MODE_ADAPTIVE (default), MODE_UP for frame sequences
+     * where rows repeat, or MODE_NONE.
+     */
+    public static void setFilterMode(int mode) {
+        filterMode = mode;
+    }
+    
+    public static int getFilterMode() {
+        return filterMode;
+    }
+    
     public static boolean export(Sprite sprite, String filename, PixelArtists midlet) {
+        FrameRenderPipeline pipeline = new FrameRenderPipeline(sprite);
+        if (!pipeline.render(sprite.getCurrentFrameIndex())) return false;
+        return export(pipeline, filename, midlet);
+    }
+    
+    /**
+     * Writes the pipeline's current frame.
+     */
+    public static boolean export(FrameRenderPipeline pipeline, String filename, PixelArtists midlet) {
         String savePath = FileManager.getBestSavePath();
         if (savePath == null) {
             midlet.showAlert("Error", "No writable storage found", AlertType.ERROR);
@@ -31,35 +67,20 @@ public class PNGExporter {
             if (!fc.exists()) fc.create();
             DataOutputStream dos = fc.openDataOutputStream();
             
-            int width = sprite.getWidth();
-            int height = sprite.getHeight();
-            int[] pixels = sprite.compositeCurrentFrame();
+            int width = pipeline.getWidth();
+            int height = pipeline.getHeight();
+            byte[] indices = pipeline.getIndices();
             
-            if (pixels == null) {
-                dos.close();
-                fc.close();
-                return false;
+            // Rows are filtered and compressed one at a time
+            Palette palette = pipeline.getPalette();
+            PNGWriter png = new PNGWriter(dos, width, height,
+                                          palette.getColors(), palette.getColorCount());
+            png.setFilterMode(filterMode);
+            png.setCompressionLevel(compressionLevel);
+            for (int y = 0; y < height; y++) {
+                png.writeRow(indices, y * width);
             }
-            
-            // PNG Signature
-            dos.write(0x89);
-            dos.write('P'); dos.write('N'); dos.write('G');
-            dos.write(0x0D); dos.write(0x0A);
-            dos.write(0x1A); dos.write(0x0A);
-            
-            // IHDR Chunk
-            writeChunk(dos, "IHDR", createIHDR(width, height));
-            
-            // PLTE Chunk (palette)
-            Palette palette = sprite.getPalette();
-            writeChunk(dos, "PLTE", createPLTE(palette));
-            
-            // IDAT Chunk (image data)
-            byte[] imageData = createIDAT(pixels, width, height, palette);
-            writeChunk(dos, "IDAT", imageData);
-            
-            // IEND Chunk
-            writeChunk(dos, "IEND", new byte[0]);
+            png.finish();
             
             dos.flush();
             dos.close();
@@ -73,118 +94,4 @@ public class PNGExporter {
             return false;
         }
     }
-    
-    private static void writeChunk(DataOutputStream dos, String type, byte[] data) throws IOException {
-        // Length
-        dos.writeInt(data.length);
-        
-        // Type
-        dos.write(type.getBytes());
-        
-        // Data
-        dos.write(data);
-        
-        // CRC
-        int crc = calculateCRC(type.getBytes(), data);
-        dos.writeInt(crc);
-    }
-    
-    private static byte[] createIHDR(int width, int height) {
-        byte[] ihdr = new byte[13];
-        
-        // Width (4 bytes)
-        ihdr[0] = (byte)((width >> 24) & 0xFF);
-        ihdr[1] = (byte)((width >> 16) & 0xFF);
-        ihdr[2] = (byte)((width >> 8) & 0xFF);
-        ihdr[3] = (byte)(width & 0xFF);
-        
-        // Height (4 bytes)
-        ihdr[4] = (byte)((height >> 24) & 0xFF);
-        ihdr[5] = (byte)((height >> 16) & 0xFF);
-        ihdr[6] = (byte)((height >> 8) & 0xFF);
-        ihdr[7] = (byte)(height & 0xFF);
-        
-        // Bit depth (1 byte) - 8 bits per pixel
-        ihdr[8] = 8;
-        
-        // Color type (1 byte) - 3 = indexed color
-        ihdr[9] = 3;
-        
-        // Compression method (1 byte) - 0 = DEFLATE
-        ihdr[10] = 0;
-        
-        // Filter method (1 byte) - 0 = adaptive
-        ihdr[11] = 0;
-        
-        // Interlace method (1 byte) - 0 = no interlace
-        ihdr[12] = 0;
-        
-        return ihdr;
-    }
-    
-    private static byte[] createPLTE(Palette palette) {
-        int colorCount = palette.getColorCount();
-        byte[] plte = new byte[colorCount * 3];
-        
-        for (int i = 0; i < colorCount; i++) {
-            int color = palette.getColor(i);
-            plte[i * 3 + 0] = (byte)((color >> 16) & 0xFF); // R
-            plte[i * 3 + 1] = (byte)((color >> 8) & 0xFF);  // G
-            plte[i * 3 + 2] = (byte)(color & 0xFF);         // B
-        }
-        
-        return plte;
-    }
-    
-    private static byte[] createIDAT(int[] pixels, int width, int height, Palette palette) {
-        // Convert RGB pixels to palette indices
-        byte[] indices = new byte[width * height];
-        for (int i = 0; i < pixels.length; i++) {
-            int color = pixels[i];
-            if (color == 0) {
-                indices[i] = 0; // Transparent
-            } else {
-                indices[i] = (byte)(palette.findNearestColor(color) & 0xFF);
-            }
-        }
-        
-        // Add filter byte (0 = none) at start of each scanline
-        byte[] filtered = new byte[height * (width + 1)];
-        for (int y = 0; y < height; y++) {
-            filtered[y * (width + 1)] = 0; // Filter type
-            System.arraycopy(indices, y * width, filtered, y * (width + 1) + 1, width);
-        }
-        
-        // Simple compression (just copy for now - full DEFLATE is complex)
-        // In production, use zlib compression here
-        return filtered;
-    }
-    
-    private static int calculateCRC(byte[] type, byte[] data) {
-        int crc = 0xFFFFFFFF;
-        
-        // Process type
-        for (int i = 0; i < type.length; i++) {
-            crc = updateCRC(crc, type[i]);
-        }
-        
-        // Process data
-        for (int i = 0; i < data.length; i++) {
-            crc = updateCRC(crc, data[i]);
-        }
-        
-        return ~crc;
-    }
-    
-    private static int updateCRC(int crc, byte b) {
-        int c = crc ^ (b & 0xFF);
-        for (int k = 0; k < 8; k++) {
-            if ((c & 1) != 0) {
-                c = 0xEDB88320 ^ (c >>> 1);
-            } else {
-                c = c >>> 1;
-            }
-        }
-        return c;
-    }
 }
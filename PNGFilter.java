@@ -0,0 +1,121 @@
+/**
+ * PNGFilter - Scanline filters for 8-bit indexed PNG (1 byte per pixel)
+ *
+ * Modes:
+ * - NONE: filter type 0 on every row
+ * - UP: filter type 2 on every row; cheap and good when rows repeat
+ *   (animation frames, tiled backgrounds)
+ * - ADAPTIVE: per row the filter with the minimum sum of absolute
+ *   differences among None/Sub/Up/Average/Paeth
+ *
+ * Rows are read from data[rowOff..rowOff+len); the prior row starts
+ * at priorOff, or priorOff < 0 for the first row.
+ */
+public class PNGFilter {
+
+    public static final int TYPE_NONE = 0;
+    public static final int TYPE_SUB = 1;
+    public static final int TYPE_UP = 2;
+    public static final int TYPE_AVERAGE = 3;
+    public static final int TYPE_PAETH = 4;
+
+    public static final int MODE_NONE = 0;
+    public static final int MODE_UP = 1;
+    public static final int MODE_ADAPTIVE = 2;
+
+    /**
+     * Writes the filter type byte and the filtered row to out[outOff..]
+     * (len + 1 bytes). Returns the filter type used.
+     */
+    public static int filterRow(int mode, byte[] data, int rowOff, byte[] prior, int priorOff,
+                                int len, byte[] out, int outOff) {
+        int type;
+        if (mode == MODE_NONE) {
+            type = TYPE_NONE;
+        } else if (mode == MODE_UP || priorOff < 0) {
+            // Without a prior row Up equals None and Paeth equals Sub
+            type = mode == MODE_UP ? TYPE_UP : chooseFirstRow(data, rowOff, len);
+        } else {
+            type = choose(data, rowOff, prior, priorOff, len);
+        }
+        out[outOff] = (byte) type;
+        apply(type, data, rowOff, prior, priorOff, len, out, outOff + 1);
+        return type;
+    }
+
+    private static int chooseFirstRow(byte[] data, int rowOff, int len) {
+        int none = 0;
+        int sub = 0;
+        int left = 0;
+        for (int i = 0; i < len; i++) {
+            int x = data[rowOff + i] & 0xFF;
+            none += abs((byte) x);
+            sub += abs((byte) (x - left));
+            left = x;
+        }
+        return sub < none ? TYPE_SUB : TYPE_NONE;
+    }
+
+    private static int choose(byte[] data, int rowOff, byte[] prior, int priorOff, int len) {
+        int none = 0;
+        int sub = 0;
+        int up = 0;
+        int avg = 0;
+        int paeth = 0;
+        int left = 0;
+        int upLeft = 0;
+        for (int i = 0; i < len; i++) {
+            int x = data[rowOff + i] & 0xFF;
+            int above = prior[priorOff + i] & 0xFF;
+            none += abs((byte) x);
+            sub += abs((byte) (x - left));
+            up += abs((byte) (x - above));
+            avg += abs((byte) (x - ((left + above) >> 1)));
+            paeth += abs((byte) (x - paethPredictor(left, above, upLeft)));
+            left = x;
+            upLeft = above;
+        }
+        int type = TYPE_NONE;
+        int best = none;
+        if (sub < best) { best = sub; type = TYPE_SUB; }
+        if (up < best) { best = up; type = TYPE_UP; }
+        if (avg < best) { best = avg; type = TYPE_AVERAGE; }
+        if (paeth < best) { type = TYPE_PAETH; }
+        return type;
+    }
+
+    private static void apply(int type, byte[] data, int rowOff, byte[] prior, int priorOff,
+                              int len, byte[] out, int outOff) {
+        int left = 0;
+        int upLeft = 0;
+        for (int i = 0; i < len; i++) {
+            int x = data[rowOff + i] & 0xFF;
+            int above = priorOff < 0 ? 0 : prior[priorOff + i] & 0xFF;
+            int predicted;
+            switch (type) {
+                case TYPE_SUB: predicted = left; break;
+                case TYPE_UP: predicted = above; break;
+                case TYPE_AVERAGE: predicted = (left + above) >> 1; break;
+                case TYPE_PAETH: predicted = paethPredictor(left, above, upLeft); break;
+                default: predicted = 0; break;
+            }
+            out[outOff + i] = (byte) (x - predicted);
+            left = x;
+            upLeft = above;
+        }
+    }
+
+    private static int paethPredictor(int a, int b, int c) {
+        int p = a + b - c;
+        int pa = Math.abs(p - a);
+        int pb = Math.abs(p - b);
+        int pc = Math.abs(p - c);
+        if (pa <= pb && pa <= pc) return a;
+        if (pb <= pc) return b;
+        return c;
+    }
+
+    private static int abs(byte b) {
+        return b < 0 ? -b : b;
+    }
+}
@@ -0,0 +1,162 @@
+import java.io.*;
+
+/**
+ * PNGWriter - Streaming 8-bit indexed PNG encoder
+ *
+ * Rows are passed in one at a time, filtered against the previous row
+ * (PNGFilter), compressed (ZlibEncoder with a small window) and written
+ * as IDAT chunks of at most CHUNK_SIZE bytes with a running CRC. The
+ * whole image is never held in memory; working buffers are two rows,
+ * one chunk and the encoder window.
+ *
+ * Usage: new PNGWriter(...), writeRow() height times, finish().
+ */
+public class PNGWriter {
+
+    public static final int CHUNK_SIZE = 2048;
+
+    // 1 KB window: repeated rows of sprites up to 1023 pixels wide still match
+    private static final int WINDOW_BITS = 10;
+
+    private OutputStream out;
+    private int width;
+    private int height;
+    private int[] colors;
+    private int colorCount;
+
+    private int filterMode = PNGFilter.MODE_ADAPTIVE;
+    private int level = ZlibEncoder.LEVEL_DEFAULT;
+
+    private ZlibEncoder zlib;
+    private byte[] prevRow;
+    private byte[] filtered;
+    private int rowsWritten;
+
+    private byte[] chunk;
+    private int chunkLength;
+    private byte[] chunkHeader = new byte[8];
+    private CRC32 crc = new CRC32();
+
+    public PNGWriter(OutputStream out, int width, int height, int[] colors, int colorCount) {
+        this.out = out;
+        this.width = width;
+        this.height = height;
+        this.colors = colors;
+        this.colorCount = Math.max(1, Math.min(256, colorCount));
+    }
+
+    public void setFilterMode(int mode) {
+        filterMode = mode;
+    }
+
+    public void setCompressionLevel(int level) {
+        this.level = level;
+    }
+
+    /**
+     * Writes one row of palette indices from row[off..off+width).
+     */
+    public void writeRow(byte[] row, int off) throws IOException {
+        if (zlib == null) start();
+        if (rowsWritten >= height) throw new IOException("Too many rows");
+        int priorOff = rowsWritten == 0 ? -1 : 0;
+        PNGFilter.filterRow(filterMode, row, off, prevRow, priorOff, width, filtered, 0);
+        zlib.write(filtered, 0, width + 1);
+        System.arraycopy(row, off, prevRow, 0, width);
+        rowsWritten++;
+    }
+
+    public void finish() throws IOException {
+        if (zlib == null) start();
+        if (rowsWritten != height) throw new IOException("Missing rows");
+        zlib.finish();
+        flushChunk();
+        writeChunk("IEND", null, 0);
+        out.flush();
+    }
+
+    private void start() throws IOException {
+        // PNG Signature
+        byte[] signature = { (byte) 0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A };
+        out.write(signature);
+
+        byte[] ihdr = new byte[13];
+        putInt(ihdr, 0, width);
+        putInt(ihdr, 4, height);
+        ihdr[8] = 8;  // Bit depth
+        ihdr[9] = 3;  // Color type: indexed
+        ihdr[10] = 0; // Compression: DEFLATE
+        ihdr[11] = 0; // Filter method: adaptive
+        ihdr[12] = 0; // No interlace
+        writeChunk("IHDR", ihdr, ihdr.length);
+
+        byte[] plte = new byte[colorCount * 3];
+        for (int i = 0; i < colorCount; i++) {
+            int color = colors[i];
+            plte[i * 3] = (byte) ((color >> 16) & 0xFF);
+            plte[i * 3 + 1] = (byte) ((color >> 8) & 0xFF);
+            plte[i * 3 + 2] = (byte) (color & 0xFF);
+        }
+        writeChunk("PLTE", plte, plte.length);
+
+        prevRow = new byte[width];
+        filtered = new byte[width + 1];
+        chunk = new byte[CHUNK_SIZE];
+        chunkLength = 0;
+        zlib = new ZlibEncoder(new IDATStream(), level, WINDOW_BITS);
+        zlib.setMatchHint(width + 1);
+    }
+
+    private void flushChunk() throws IOException {
+        if (chunkLength > 0) {
+            writeChunk("IDAT", chunk, chunkLength);
+            chunkLength = 0;
+        }
+    }
+
+    private void writeChunk(String type, byte[] data, int length) throws IOException {
+        byte[] header = chunkHeader;
+        putInt(header, 0, length);
+        for (int i = 0; i < 4; i++) {
+            header[4 + i] = (byte) type.charAt(i);
+        }
+        crc.reset();
+        crc.update(header, 4, 4);
+        out.write(header, 0, 8);
+        if (length > 0) {
+            crc.update(data, 0, length);
+            out.write(data, 0, length);
+        }
+        putInt(header, 0, crc.getValue());
+        out.write(header, 0, 4);
+    }
+
+    private static void putInt(byte[] b, int off, int v) {
+        b[off] = (byte) (v >>> 24);
+        b[off + 1] = (byte) (v >>> 16);
+        b[off + 2] = (byte) (v >>> 8);
+        b[off + 3] = (byte) v;
+    }
+
+    /**
+     * Collects compressed bytes and emits a full IDAT chunk whenever
+     * the chunk buffer fills up.
+     */
+    private class IDATStream extends OutputStream {
+        public void write(int b) throws IOException {
+            if (chunkLength == CHUNK_SIZE) flushChunk();
+            chunk[chunkLength++] = (byte) b;
+        }
+
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (chunkLength == CHUNK_SIZE) flushChunk();
+                int n = Math.min(len, CHUNK_SIZE - chunkLength);
+                System.arraycopy(b, off, chunk, chunkLength, n);
+                chunkLength += n;
+                off += n;
+                len -= n;
+            }
+        }
+    }
+}
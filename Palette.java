@@ -2,12 +2,38 @@ public class Palette {
     private int[] colors;
     private int colorCount;
     private static final int MAX_COLORS = 256;
+
+    public static final int SORT_HUE = 0;
+    public static final int SORT_LUMA = 1;
     private String name;
+    private int[] argbTable;
+
+    // Exact color -> lowest index with that color, open addressing with
+    // linear probing; keys are opaque ARGB so 0 marks an empty slot
+    private static final int HASH_BITS = 9;
+    private int[] hashKeys;
+    private int[] hashValues;
+
+    // findNearestColor acceleration, rebuilt lazily after any edit:
+    // a direct-mapped memo of recent queries and a k-d tree over RGB
+    private static final int CACHE_BITS = 9;
+    private static final int KD_MIN_COLORS = 16;
+    private int[] cacheKeys;
+    private byte[] cacheValues;
+    private int[] kdIndex;
+    private int[] kdColor;
+    private int searchR;
+    private int searchG;
+    private int searchB;
+    private int searchBest;
+    private int searchDistance;
 
     public Palette(String name) {
         this.name = name;
         this.colors = new int[MAX_COLORS];
         this.colorCount = 0;
+        this.hashKeys = new int[1 << HASH_BITS];
+        this.hashValues = new int[1 << HASH_BITS];
     }
 
     public int addColor(int rgb) {
@@ -15,24 +41,179 @@ public class Palette {
         int existing = findColor(rgb);
         if (existing >= 0) return existing;
         colors[colorCount] = rgb | 0xFF000000;
+        hashPut(colors[colorCount], colorCount);
         colorCount++;
+        invalidateLookups();
         return colorCount - 1;
     }
 
-    public boolean removeColor(int index) {
+    public boolean setColor(int index, int rgb) {
         if (index < 0 || index >= colorCount) return false;
-        for (int i = index; i < colorCount - 1; i++) {
-            colors[i] = colors[i + 1];
+        int old = colors[index];
+        int color = rgb | 0xFF000000;
+        if (old == color) return true;
+        colors[index] = color;
+        if (hashGet(old) == index) {
+            hashRemove(old);
+            // Another entry may still carry the old color
+            for (int i = index + 1; i < colorCount; i++) {
+                if (colors[i] == old) {
+                    hashPut(old, i);
+                    break;
+                }
+            }
+        }
+        int existing = hashGet(color);
+        if (existing < 0 || existing > index) {
+            if (existing >= 0) hashRemove(color);
+            hashPut(color, index);
         }
-        colors[colorCount - 1] = 0;
-        colorCount--;
+        invalidateLookups();
         return true;
     }
 
-    public boolean setColor(int index, int rgb) {
-        if (index < 0 || index >= colorCount) return false;
-        colors[index] = rgb | 0xFF000000;
-        return true;
+    /*
+     * Index-preserving edits. Each changes the palette and returns a
+     * 256-entry remap (old index -> new index) for Sprite.remapPixels(),
+     * or null if nothing changed. Index 0 (transparent) never moves.
+     */
+
+    /**
+     * Removes an entry; later entries shift down and pixels of the
+     * removed color take the closest remaining one.
+     */
+    public int[] removeColorRemap(int index) {
+        if (index < 1 || index >= colorCount || colorCount <= 2) return null;
+        int removed = colors[index];
+        int[] order = new int[colorCount - 1];
+        int n = 0;
+        for (int i = 0; i < colorCount; i++) {
+            if (i != index) order[n++] = i;
+        }
+        int[] remap = reorder(order, n);
+        remap[index] = nearestOpaque(removed);
+        return remap;
+    }
+
+    /**
+     * Moves the entry at from to position to, shifting those between.
+     */
+    public int[] moveColor(int from, int to) {
+        if (from < 1 || from >= colorCount || to < 1 || to >= colorCount || from == to) return null;
+        int[] order = new int[colorCount];
+        int n = 0;
+        for (int i = 0; i < colorCount; i++) {
+            if (i == from) continue;
+            if (n == to) order[n++] = from;
+            order[n++] = i;
+        }
+        if (n == to) order[n++] = from;
+        return reorder(order, n);
+    }
+
+    /**
+     * Drops repeated colors, keeping the first copy of each.
+     */
+    public int[] mergeDuplicates() {
+        int[] order = new int[colorCount];
+        int[] first = new int[colorCount];
+        int n = 0;
+        for (int i = 0; i < colorCount; i++) {
+            int f = hashGet(colors[i]);
+            if (f == 0 && i > 0) {
+                // Never merge into the transparent slot
+                f = i;
+                for (int j = 1; j < i; j++) {
+                    if (colors[j] == colors[i]) {
+                        f = j;
+                        break;
+                    }
+                }
+            }
+            first[i] = f;
+            if (f == i) order[n++] = i;
+        }
+        if (n == colorCount) return null;
+        int[] remap = reorder(order, n);
+        for (int i = 0; i < first.length; i++) {
+            remap[i] = remap[first[i]];
+        }
+        return remap;
+    }
+
+    /**
+     * Sorts entries 1.. by SORT_HUE (grays first, then by hue and
+     * lightness) or SORT_LUMA. Equal keys keep their order.
+     */
+    public int[] sort(int key) {
+        if (colorCount < 3) return null;
+        int[] order = new int[colorCount];
+        int[] keys = new int[colorCount];
+        for (int i = 0; i < colorCount; i++) {
+            order[i] = i;
+            keys[i] = key == SORT_HUE ? hueKey(colors[i]) : luma(colors[i]);
+        }
+        for (int i = 2; i < colorCount; i++) {
+            int idx = order[i];
+            int k = keys[idx];
+            int j = i - 1;
+            while (j >= 1 && keys[order[j]] > k) {
+                order[j + 1] = order[j];
+                j--;
+            }
+            order[j + 1] = idx;
+        }
+        return reorder(order, colorCount);
+    }
+
+    // order[newIndex] = oldIndex for the count kept entries; entries left
+    // out keep an identity remap for the caller to fill in
+    private int[] reorder(int[] order, int count) {
+        int[] old = new int[colorCount];
+        System.arraycopy(colors, 0, old, 0, colorCount);
+        int[] remap = new int[256];
+        for (int i = 0; i < 256; i++) {
+            remap[i] = i;
+        }
+        boolean changed = count != colorCount;
+        for (int i = 0; i < count; i++) {
+            colors[i] = old[order[i]];
+            remap[order[i]] = i;
+            if (order[i] != i) changed = true;
+        }
+        for (int i = count; i < colorCount; i++) {
+            colors[i] = 0;
+        }
+        colorCount = count;
+        rebuildHash();
+        invalidateLookups();
+        return changed ? remap : null;
+    }
+
+    private int nearestOpaque(int rgb) {
+        int best = 1;
+        int bestDistance = Integer.MAX_VALUE;
+        for (int i = 1; i < colorCount; i++) {
+            int c = colors[i];
+            int dr = ((rgb >> 16) & 0xFF) - ((c >> 16) & 0xFF);
+            int dg = ((rgb >> 8) & 0xFF) - ((c >> 8) & 0xFF);
+            int db = (rgb & 0xFF) - (c & 0xFF);
+            int distance = dr * dr + dg * dg + db * db;
+            if (distance < bestDistance) {
+                bestDistance = distance;
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    private static int luma(int c) {
+        return ((c >> 16) & 0xFF) * 299 + ((c >> 8) & 0xFF) * 587 + (c & 0xFF) * 114;
+    }
+
+    // Grays sort before all hues; lightness breaks ties
+    private static int hueKey(int c) {
+        return (1 + ColorFilter.hue(c)) * 256 + luma(c) / 1000;
     }
 
     public int getColor(int index) {
@@ -40,16 +221,136 @@ public class Palette {
         return colors[index];
     }
 
+    /**
+     * Palette index -> ARGB lookup table for display and export; index 0
+     * is transparent (0). Rebuilt as a new array after any change, so a
+     * holder can compare references to notice palette edits.
+     */
+    public int[] getARGBTable() {
+        if (argbTable == null) {
+            int[] table = new int[256];
+            for (int i = 1; i < 256; i++) {
+                table[i] = i < colorCount ? colors[i] : 0xFF000000;
+            }
+            argbTable = table;
+        }
+        return argbTable;
+    }
+
     public int findColor(int rgb) {
-        int target = rgb | 0xFF000000;
-        for (int i = 0; i < colorCount; i++) {
-            if (colors[i] == target) return i;
+        return hashGet(rgb | 0xFF000000);
+    }
+
+    private int hashGet(int key) {
+        int mask = hashKeys.length - 1;
+        int slot = (key * 0x9E3779B1) >>> (32 - HASH_BITS);
+        while (hashKeys[slot] != 0) {
+            if (hashKeys[slot] == key) return hashValues[slot];
+            slot = (slot + 1) & mask;
         }
         return -1;
     }
 
+    private void hashPut(int key, int index) {
+        int mask = hashKeys.length - 1;
+        int slot = (key * 0x9E3779B1) >>> (32 - HASH_BITS);
+        while (hashKeys[slot] != 0) {
+            if (hashKeys[slot] == key) {
+                hashValues[slot] = index;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        hashKeys[slot] = key;
+        hashValues[slot] = index;
+    }
+
+    // Backward-shift deletion keeps probe chains intact without tombstones
+    private void hashRemove(int key) {
+        int mask = hashKeys.length - 1;
+        int slot = (key * 0x9E3779B1) >>> (32 - HASH_BITS);
+        while (hashKeys[slot] != key) {
+            if (hashKeys[slot] == 0) return;
+            slot = (slot + 1) & mask;
+        }
+        int hole = slot;
+        int next = (hole + 1) & mask;
+        while (hashKeys[next] != 0) {
+            int home = (hashKeys[next] * 0x9E3779B1) >>> (32 - HASH_BITS);
+            // Move the entry back if its home is not in (hole, next]
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                hashKeys[hole] = hashKeys[next];
+                hashValues[hole] = hashValues[next];
+                hole = next;
+            }
+            next = (next + 1) & mask;
+        }
+        hashKeys[hole] = 0;
+    }
+
+    private void rebuildHash() {
+        for (int i = 0; i < hashKeys.length; i++) {
+            hashKeys[i] = 0;
+        }
+        // Backwards, so the lowest index of a repeated color wins
+        for (int i = colorCount - 1; i >= 0; i--) {
+            hashPut(colors[i], i);
+        }
+    }
+
+    /**
+     * Index of the closest color (squared RGB distance, lowest index on
+     * ties). Repeated queries are answered from a small memo; misses
+     * search a k-d tree once the palette has KD_MIN_COLORS entries.
+     */
     public int findNearestColor(int rgb) {
         if (colorCount == 0) return 0;
+        int key = rgb & 0xFFFFFF;
+        if (cacheKeys == null) {
+            cacheKeys = new int[1 << CACHE_BITS];
+            cacheValues = new byte[1 << CACHE_BITS];
+            for (int i = 0; i < cacheKeys.length; i++) {
+                cacheKeys[i] = -1;
+            }
+        }
+        int slot = (key * 0x9E3779B1) >>> (32 - CACHE_BITS);
+        if (cacheKeys[slot] == key) return cacheValues[slot] & 0xFF;
+
+        int nearest;
+        if (colorCount < KD_MIN_COLORS) {
+            nearest = scanNearest(key);
+        } else {
+            if (kdIndex == null) buildTree();
+            searchR = (key >> 16) & 0xFF;
+            searchG = (key >> 8) & 0xFF;
+            searchB = key & 0xFF;
+            searchBest = 0;
+            searchDistance = Integer.MAX_VALUE;
+            searchTree(0, colorCount, 0);
+            nearest = searchBest;
+        }
+        cacheKeys[slot] = key;
+        cacheValues[slot] = (byte) nearest;
+        return nearest;
+    }
+
+    /**
+     * Like findNearestColor, but never returns the transparent index 0.
+     */
+    public int findNearestOpaqueColor(int rgb) {
+        int nearest = findNearestColor(rgb);
+        return nearest != 0 || colorCount < 2 ? nearest : nearestOpaque(rgb);
+    }
+
+    private void invalidateLookups() {
+        argbTable = null;
+        cacheKeys = null;
+        cacheValues = null;
+        kdIndex = null;
+        kdColor = null;
+    }
+
+    private int scanNearest(int rgb) {
         int r = (rgb >> 16) & 0xFF;
         int g = (rgb >> 8) & 0xFF;
         int b = rgb & 0xFF;
@@ -72,6 +373,65 @@ public class Palette {
         return bestIndex;
     }
 
+    // Implicit tree: the median of each range is the node, split on
+    // R, G, B by depth, with the lower and upper halves as children
+    private void buildTree() {
+        kdIndex = new int[colorCount];
+        kdColor = new int[colorCount];
+        for (int i = 0; i < colorCount; i++) {
+            kdIndex[i] = i;
+            kdColor[i] = colors[i];
+        }
+        buildTree(0, colorCount, 0);
+    }
+
+    private void buildTree(int lo, int hi, int axis) {
+        if (hi - lo < 2) return;
+        int shift = 16 - axis * 8;
+        // Insertion sort on the axis; ranges are at most 256 entries
+        for (int i = lo + 1; i < hi; i++) {
+            int c = kdColor[i];
+            int idx = kdIndex[i];
+            int v = (c >> shift) & 0xFF;
+            int j = i - 1;
+            while (j >= lo && ((kdColor[j] >> shift) & 0xFF) > v) {
+                kdColor[j + 1] = kdColor[j];
+                kdIndex[j + 1] = kdIndex[j];
+                j--;
+            }
+            kdColor[j + 1] = c;
+            kdIndex[j + 1] = idx;
+        }
+        int mid = (lo + hi) >>> 1;
+        int next = axis == 2 ? 0 : axis + 1;
+        buildTree(lo, mid, next);
+        buildTree(mid + 1, hi, next);
+    }
+
+    private void searchTree(int lo, int hi, int axis) {
+        if (lo >= hi) return;
+        int mid = (lo + hi) >>> 1;
+        int c = kdColor[mid];
+        int dr = searchR - ((c >> 16) & 0xFF);
+        int dg = searchG - ((c >> 8) & 0xFF);
+        int db = searchB - (c & 0xFF);
+        int distance = dr * dr + dg * dg + db * db;
+        int index = kdIndex[mid];
+        if (distance < searchDistance || (distance == searchDistance && index < searchBest)) {
+            searchDistance = distance;
+            searchBest = index;
+        }
+        int diff = axis == 0 ? dr : axis == 1 ? dg : db;
+        int next = axis == 2 ? 0 : axis + 1;
+        if (diff < 0) {
+            searchTree(lo, mid, next);
+            if (diff * diff <= searchDistance) searchTree(mid + 1, hi, next);
+        } else {
+            searchTree(mid + 1, hi, next);
+            if (diff * diff <= searchDistance) searchTree(lo, mid, next);
+        }
+    }
+
     public void generateGradient(int startColor, int endColor, int steps) {
         if (steps <= 0) return;
         int sr = (startColor >> 16) & 0xFF;
@@ -143,7 +503,7 @@ public class Palette {
     public void setName(String n) { this.name = n; }
 
     public int getMemorySize() {
-        return colors.length * 4 + 50;
+        return colors.length * 4 + hashKeys.length * 8 + 50;
     }
 
     public int[] getColors() {
@@ -263,7 +263,7 @@ public class PixelArtists extends MIDlet implements CommandListener {
             } else if (format.equals("JPG")) {
                 success = JPGExporter.export(currentSprite, filename, this);
             } else if (format.equals("GIF")) {
-                success = GIFExporter.export(currentSprite, filename, currentFPS, this);
+                success = GIFExporter.export(currentSprite, filename, this);
             } else if (format.equals("MP4")) {
                 success = MP4Exporter.exportSequence(currentSprite, filename, this);
             }
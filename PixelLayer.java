@@ -5,6 +5,7 @@ public class PixelLayer extends Layer {
     private byte[] alphaMask;
     private boolean hasAlpha;
     private static Random random = new Random();
+    private static int[] fillStack = new int[256];
 
     public PixelLayer(int width, int height, String name) {
         super(width, height, name);
@@ -35,6 +36,7 @@ public class PixelLayer extends Layer {
         if (hasAlpha && alphaMask != null) {
             alphaMask[idx] = (byte) 0xFF;
         }
+        dirty.add(x, y);
     }
 
     public void setPixelAlpha(int x, int y, int alpha) {
@@ -48,6 +50,7 @@ public class PixelLayer extends Layer {
         }
         int idx = y * width + x;
         alphaMask[idx] = (byte) (alpha & 0xFF);
+        dirty.add(x, y);
     }
 
     public Layer duplicate() {
@@ -73,50 +76,212 @@ public class PixelLayer extends Layer {
                 alphaMask[i] = 0;
             }
         }
+        markAllDirty();
     }
 
     public void fillRect(int x, int y, int w, int h, int color) {
-        for (int dy = 0; dy < h; dy++) {
-            for (int dx = 0; dx < w; dx++) {
-                setPixel(x + dx, y + dy, color);
-            }
+        if (x < 0) { w += x; x = 0; }
+        if (y < 0) { h += y; y = 0; }
+        if (x + w > width) w = width - x;
+        if (y + h > height) h = height - y;
+        if (w <= 0 || h <= 0) return;
+
+        fillSpan(x, x + w - 1, y, color);
+        int src = y * width + x;
+        byte[] mask = hasAlpha ? alphaMask : null;
+        for (int row = 1; row < h; row++) {
+            int dst = src + row * width;
+            System.arraycopy(pixels, src, pixels, dst, w);
+            if (mask != null) System.arraycopy(mask, src, mask, dst, w);
+        }
+        dirty.add(x, y, w, h);
+    }
+
+    /**
+     * Horizontal run x0..x1 (inclusive) on row y, clipped once.
+     */
+    public void fillSpan(int x0, int x1, int y, int color) {
+        if (y < 0 || y >= height) return;
+        if (x0 < 0) x0 = 0;
+        if (x1 >= width) x1 = width - 1;
+        if (x0 > x1) return;
+        byte value = (byte) color;
+        int i = y * width + x0;
+        int end = y * width + x1;
+        while (i <= end) pixels[i++] = value;
+        if (hasAlpha && alphaMask != null) {
+            for (i = y * width + x0; i <= end; i++) alphaMask[i] = (byte) 0xFF;
         }
+        dirty.add(x0, y, x1 - x0 + 1, 1);
+    }
+
+    public void fillVSpan(int x, int y0, int y1, int color) {
+        if (x < 0 || x >= width) return;
+        if (y0 < 0) y0 = 0;
+        if (y1 >= height) y1 = height - 1;
+        if (y0 > y1) return;
+        byte value = (byte) color;
+        byte[] mask = hasAlpha ? alphaMask : null;
+        int end = y1 * width + x;
+        for (int i = y0 * width + x; i <= end; i += width) {
+            pixels[i] = value;
+            if (mask != null) mask[i] = (byte) 0xFF;
+        }
+        dirty.add(x, y0, 1, y1 - y0 + 1);
     }
 
     public void floodFill(int x, int y, int fillColor) {
+        floodFill(x, y, fillColor, 0, true, null);
+    }
+
+    /**
+     * Span fill working on the raw pixel array. Matching colors are
+     * looked up in a 256-entry table; with tolerance > 0 (max channel
+     * difference, needs the palette) nearby colors match too. A
+     * non-contiguous fill replaces every matching pixel in one pass.
+     */
+    public void floodFill(int x, int y, int fillColor, int tolerance,
+                          boolean contiguous, Palette palette) {
         if (x < 0 || x >= width || y < 0 || y >= height) return;
         int targetColor = getPixel(x, y);
-        if (targetColor == fillColor) return;
-        int[] stackX = new int[width * height];
-        int[] stackY = new int[width * height];
-        int stackTop = 0;
-        stackX[stackTop] = x;
-        stackY[stackTop] = y;
-        stackTop++;
-        while (stackTop > 0) {
-            stackTop--;
-            int cx = stackX[stackTop];
-            int cy = stackY[stackTop];
-            if (cx < 0 || cx >= width || cy < 0 || cy >= height) continue;
-            if (getPixel(cx, cy) != targetColor) continue;
-            setPixel(cx, cy, fillColor);
-            if (stackTop + 4 < stackX.length) {
-                stackX[stackTop] = cx + 1; stackY[stackTop] = cy; stackTop++;
-                stackX[stackTop] = cx - 1; stackY[stackTop] = cy; stackTop++;
-                stackX[stackTop] = cx; stackY[stackTop] = cy + 1; stackTop++;
-                stackX[stackTop] = cx; stackY[stackTop] = cy - 1; stackTop++;
+        fillColor &= 0xFF;
+        if (targetColor == fillColor && tolerance <= 0) return;
+
+        boolean[] match = buildMatchTable(targetColor, tolerance, palette);
+        byte[] mask = hasAlpha ? alphaMask : null;
+        byte value = (byte) fillColor;
+
+        if (!contiguous) {
+            int minX = width, minY = height, maxX = -1, maxY = -1;
+            int i = 0;
+            for (int py = 0; py < height; py++) {
+                for (int px = 0; px < width; px++, i++) {
+                    if (match[mask != null && mask[i] == 0 ? 0 : pixels[i] & 0xFF]) {
+                        pixels[i] = value;
+                        if (mask != null) mask[i] = (byte) 0xFF;
+                        if (px < minX) minX = px;
+                        if (px > maxX) maxX = px;
+                        if (py < minY) minY = py;
+                        maxY = py;
+                    }
+                }
             }
+            if (maxX >= 0) dirty.add(minX, minY, maxX - minX + 1, maxY - minY + 1);
+            return;
         }
+
+        // Filled pixels only stop matching if the fill color is outside
+        // the table; otherwise track visited pixels in a bit set
+        int[] seen = match[fillColor] ? new int[(pixels.length + 31) >> 5] : null;
+
+        int minX = x, maxX = x, minY = y, maxY = y;
+        int sp = pushSpan(0, x, x, y, 1);
+        sp = pushSpan(sp, x, x, y - 1, -1);
+
+        while (sp > 0) {
+            int[] stack = fillStack;
+            int dy = stack[--sp];
+            int sy = stack[--sp];
+            int x2 = stack[--sp];
+            int x1 = stack[--sp];
+            int row = sy * width;
+            int sx = x1;
+
+            if (inside(row + sx, match, mask, seen)) {
+                while (sx > 0 && inside(row + sx - 1, match, mask, seen)) {
+                    sx--;
+                    fillAt(row + sx, value, mask, seen);
+                }
+                if (sx < x1) {
+                    if (sx < minX) minX = sx;
+                    sp = pushSpan(sp, sx, x1 - 1, sy - dy, -dy);
+                }
+            }
+            while (x1 <= x2) {
+                while (x1 < width && inside(row + x1, match, mask, seen)) {
+                    fillAt(row + x1, value, mask, seen);
+                    x1++;
+                }
+                if (x1 > sx) {
+                    if (x1 - 1 > maxX) maxX = x1 - 1;
+                    if (sy < minY) minY = sy;
+                    if (sy > maxY) maxY = sy;
+                    sp = pushSpan(sp, sx, x1 - 1, sy + dy, dy);
+                }
+                if (x1 - 1 > x2) {
+                    sp = pushSpan(sp, x2 + 1, x1 - 1, sy - dy, -dy);
+                }
+                x1++;
+                while (x1 < x2 && !inside(row + x1, match, mask, seen)) x1++;
+                sx = x1;
+            }
+        }
+        dirty.add(minX, minY, maxX - minX + 1, maxY - minY + 1);
+    }
+
+    private boolean[] buildMatchTable(int targetColor, int tolerance, Palette palette) {
+        boolean[] match = new boolean[256];
+        match[targetColor] = true;
+        if (tolerance <= 0 || palette == null || targetColor == 0) return match;
+        int target = palette.getColor(targetColor);
+        int tr = (target >> 16) & 0xFF, tg = (target >> 8) & 0xFF, tb = target & 0xFF;
+        int count = Math.min(256, palette.getColorCount());
+        // Index 0 is transparent and never joins a colored region
+        for (int i = 1; i < count; i++) {
+            int c = palette.getColor(i);
+            int dr = Math.abs(((c >> 16) & 0xFF) - tr);
+            int dg = Math.abs(((c >> 8) & 0xFF) - tg);
+            int db = Math.abs((c & 0xFF) - tb);
+            match[i] = dr <= tolerance && dg <= tolerance && db <= tolerance;
+        }
+        return match;
+    }
+
+    private boolean inside(int i, boolean[] match, byte[] mask, int[] seen) {
+        if (seen != null && (seen[i >> 5] & (1 << (i & 31))) != 0) return false;
+        return match[mask != null && mask[i] == 0 ? 0 : pixels[i] & 0xFF];
+    }
+
+    private void fillAt(int i, byte value, byte[] mask, int[] seen) {
+        pixels[i] = value;
+        if (mask != null) mask[i] = (byte) 0xFF;
+        if (seen != null) seen[i >> 5] |= 1 << (i & 31);
+    }
+
+    // Pushes (x1, x2, y, dy) unless the row is outside the layer
+    private int pushSpan(int sp, int x1, int x2, int y, int dy) {
+        if (y < 0 || y >= height) return sp;
+        int[] stack = fillStack;
+        if (sp + 4 > stack.length) {
+            int[] grown = new int[stack.length * 2];
+            System.arraycopy(stack, 0, grown, 0, sp);
+            stack = grown;
+            fillStack = grown;
+        }
+        stack[sp] = x1;
+        stack[sp + 1] = x2;
+        stack[sp + 2] = y;
+        stack[sp + 3] = dy;
+        return sp + 4;
     }
 
     public void drawLine(int x0, int y0, int x1, int y1, int color) {
+        if (y0 == y1) { fillSpan(Math.min(x0, x1), Math.max(x0, x1), y0, color); return; }
+        if (x0 == x1) { fillVSpan(x0, Math.min(y0, y1), Math.max(y0, y1), color); return; }
+        markDirty(Math.min(x0, x1), Math.min(y0, y1), Math.abs(x1 - x0) + 1, Math.abs(y1 - y0) + 1);
+        byte value = (byte) color;
+        byte[] mask = hasAlpha ? alphaMask : null;
         int dx = Math.abs(x1 - x0);
         int dy = Math.abs(y1 - y0);
         int sx = x0 < x1 ? 1 : -1;
         int sy = y0 < y1 ? 1 : -1;
         int err = dx - dy;
         while (true) {
-            setPixel(x0, y0, color);
+            if (x0 >= 0 && x0 < width && y0 >= 0 && y0 < height) {
+                int idx = y0 * width + x0;
+                pixels[idx] = value;
+                if (mask != null) mask[idx] = (byte) 0xFF;
+            }
             if (x0 == x1 && y0 == y1) break;
             int e2 = 2 * err;
             if (e2 > -dy) { err -= dy; x0 += sx; }
@@ -125,80 +290,78 @@ public class PixelLayer extends Layer {
     }
 
     public void drawRect(int x, int y, int w, int h, int color) {
-        for (int i = 0; i < w; i++) {
-            setPixel(x + i, y, color);
-            setPixel(x + i, y + h - 1, color);
-        }
-        for (int i = 0; i < h; i++) {
-            setPixel(x, y + i, color);
-            setPixel(x + w - 1, y + i, color);
-        }
+        if (w <= 0 || h <= 0) return;
+        int x1 = x + w - 1;
+        int y1 = y + h - 1;
+        fillSpan(x, x1, y, color);
+        fillSpan(x, x1, y1, color);
+        fillVSpan(x, y, y1, color);
+        fillVSpan(x1, y, y1, color);
     }
 
     public void flipHorizontal() {
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width / 2; x++) {
-                int idx1 = y * width + x;
-                int idx2 = y * width + (width - 1 - x);
-                byte temp = pixels[idx1];
-                pixels[idx1] = pixels[idx2];
-                pixels[idx2] = temp;
-            }
+        PixelTransform.mirror(pixels, width, height);
+        if (hasAlpha && alphaMask != null) {
+            PixelTransform.mirror(alphaMask, width, height);
         }
+        markAllDirty();
     }
 
     public void flipVertical() {
-        for (int y = 0; y < height / 2; y++) {
-            for (int x = 0; x < width; x++) {
-                int idx1 = y * width + x;
-                int idx2 = (height - 1 - y) * width + x;
-                byte temp = pixels[idx1];
-                pixels[idx1] = pixels[idx2];
-                pixels[idx2] = temp;
-            }
+        PixelTransform.flip(pixels, width, height);
+        if (hasAlpha && alphaMask != null) {
+            PixelTransform.flip(alphaMask, width, height);
         }
+        markAllDirty();
     }
 
     public void rotate90() {
-        byte[] newPixels = new byte[pixels.length];
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                int oldIdx = y * width + x;
-                int newIdx = x * height + (height - 1 - y);
-                newPixels[newIdx] = pixels[oldIdx];
-            }
+        rotate(1);
+    }
+
+    /**
+     * Quarter turns clockwise, in place. Odd turns swap width and
+     * height, so on a non-square layer the owning frame has to follow
+     * (Frame.rotate).
+     */
+    public void rotate(int quarterTurns) {
+        PixelTransform.rotate(pixels, width, height, quarterTurns);
+        if (hasAlpha && alphaMask != null) {
+            PixelTransform.rotate(alphaMask, width, height, quarterTurns);
+        }
+        if ((quarterTurns & 1) != 0) {
+            int temp = width;
+            width = height;
+            height = temp;
         }
-        pixels = newPixels;
-        int temp = width;
-        width = height;
-        height = temp;
+        markAllDirty();
     }
 
-    public void invertColors(Palette palette) {
-        for (int i = 0; i < pixels.length; i++) {
-            if (pixels[i] != 0) {
-                int color = palette.getColor(pixels[i] & 0xFF);
-                int r = 255 - ((color >> 16) & 0xFF);
-                int g = 255 - ((color >> 8) & 0xFF);
-                int b = 255 - (color & 0xFF);
-                int newColor = (r << 16) | (g << 8) | b;
-                pixels[i] = (byte) (palette.findNearestColor(newColor) & 0xFF);
-            }
+    public void rotateScale(int degrees, int scalePercent, boolean smooth) {
+        PixelTransform.rotateScale(pixels, width, height, degrees, scalePercent, smooth);
+        if (hasAlpha && alphaMask != null) {
+            PixelTransform.rotateScale(alphaMask, width, height, degrees, scalePercent, smooth);
         }
+        markAllDirty();
     }
 
-    public void grayscale(Palette palette) {
-        for (int i = 0; i < pixels.length; i++) {
-            if (pixels[i] != 0) {
-                int color = palette.getColor(pixels[i] & 0xFF);
-                int r = (color >> 16) & 0xFF;
-                int g = (color >> 8) & 0xFF;
-                int b = color & 0xFF;
-                int gray = (r + g + b) / 3;
-                int newColor = (gray << 16) | (gray << 8) | gray;
-                pixels[i] = (byte) (palette.findNearestColor(newColor) & 0xFF);
-            }
+    /**
+     * Replaces every pixel index i with lut[i] in one pass.
+     */
+    public void remap(byte[] lut) {
+        byte[] px = pixels;
+        for (int i = 0; i < px.length; i++) {
+            px[i] = lut[px[i] & 0xFF];
         }
+        markAllDirty();
+    }
+
+    public void invertColors(Palette palette) {
+        new ColorFilter(ColorFilter.INVERT, 0).applyTo(this, palette);
+    }
+
+    public void grayscale(Palette palette) {
+        new ColorFilter(ColorFilter.GRAYSCALE, 0).applyTo(this, palette);
     }
 
     public int getMemorySize() {
@@ -213,22 +376,43 @@ public class PixelLayer extends Layer {
         return pixels;
     }
 
+    /**
+     * Per-pixel alpha, or null when the layer has none.
+     */
+    public byte[] getAlphaMask() {
+        return hasAlpha ? alphaMask : null;
+    }
+
     public void spray(int x, int y, int radius, int color) {
+        markDirty(x - radius, y - radius, radius * 2 + 1, radius * 2 + 1);
+        byte value = (byte) color;
+        byte[] mask = hasAlpha ? alphaMask : null;
+        int r2 = radius * radius;
+        int span = radius * 2 + 1;
         for (int i = 0; i < 20; i++) {
-            int dx = random.nextInt(radius * 2 + 1) - radius;
-            int dy = random.nextInt(radius * 2 + 1) - radius;
-            if (dx * dx + dy * dy <= radius * radius) {
-                setPixel(x + dx, y + dy, color);
+            int dx = random.nextInt(span) - radius;
+            int dy = random.nextInt(span) - radius;
+            int px = x + dx;
+            int py = y + dy;
+            if (dx * dx + dy * dy <= r2 && px >= 0 && px < width && py >= 0 && py < height) {
+                int idx = py * width + px;
+                pixels[idx] = value;
+                if (mask != null) mask[idx] = (byte) 0xFF;
             }
         }
     }
 
     public void drawCircle(int centerX, int centerY, int radius, int color) {
+        markDirty(centerX - radius, centerY - radius, radius * 2 + 1, radius * 2 + 1);
+        byte value = (byte) color;
+        boolean inside = centerX - radius >= 0 && centerX + radius < width
+            && centerY - radius >= 0 && centerY + radius < height
+            && !(hasAlpha && alphaMask != null);
         int x = 0;
         int y = radius;
         int d = 1 - radius;
 
-        drawCirclePoints(centerX, centerY, x, y, color);
+        drawCirclePoints(centerX, centerY, x, y, value, inside);
 
         while (x < y) {
             if (d < 0) {
@@ -238,28 +422,70 @@ public class PixelLayer extends Layer {
                 y--;
             }
             x++;
-            drawCirclePoints(centerX, centerY, x, y, color);
+            drawCirclePoints(centerX, centerY, x, y, value, inside);
+        }
+    }
+
+    private void drawCirclePoints(int centerX, int centerY, int x, int y, byte value, boolean inside) {
+        if (inside) {
+            int below = (centerY + y) * width + centerX;
+            int above = (centerY - y) * width + centerX;
+            int right = (centerY + x) * width + centerX;
+            int left = (centerY - x) * width + centerX;
+            pixels[below + x] = value;
+            pixels[below - x] = value;
+            pixels[above + x] = value;
+            pixels[above - x] = value;
+            pixels[right + y] = value;
+            pixels[right - y] = value;
+            pixels[left + y] = value;
+            pixels[left - y] = value;
+            return;
         }
+        plot(centerX + x, centerY + y, value);
+        plot(centerX - x, centerY + y, value);
+        plot(centerX + x, centerY - y, value);
+        plot(centerX - x, centerY - y, value);
+        plot(centerX + y, centerY + x, value);
+        plot(centerX - y, centerY + x, value);
+        plot(centerX + y, centerY - x, value);
+        plot(centerX - y, centerY - x, value);
     }
 
-    private void drawCirclePoints(int centerX, int centerY, int x, int y, int color) {
-        setPixel(centerX + x, centerY + y, color);
-        setPixel(centerX - x, centerY + y, color);
-        setPixel(centerX + x, centerY - y, color);
-        setPixel(centerX - x, centerY - y, color);
-        setPixel(centerX + y, centerY + x, color);
-        setPixel(centerX - y, centerY + x, color);
-        setPixel(centerX + y, centerY - x, color);
-        setPixel(centerX - y, centerY - x, color);
+    // Bounds-checked write; callers mark the dirty area once
+    private void plot(int x, int y, byte value) {
+        if (x < 0 || x >= width || y < 0 || y >= height) return;
+        int idx = y * width + x;
+        pixels[idx] = value;
+        if (hasAlpha && alphaMask != null) alphaMask[idx] = (byte) 0xFF;
     }
 
     public void fillCircle(int centerX, int centerY, int radius, int color) {
-        for (int y = -radius; y <= radius; y++) {
-            for (int x = -radius; x <= radius; x++) {
-                if (x * x + y * y <= radius * radius) {
-                    setPixel(centerX + x, centerY + y, color);
-                }
-            }
+        if (radius < 0) return;
+        int r2 = radius * radius;
+        int dx = radius;
+        for (int dy = 0; dy <= radius; dy++) {
+            while (dx * dx + dy * dy > r2) dx--;
+            fillSpan(centerX - dx, centerX + dx, centerY + dy, color);
+            if (dy > 0) fillSpan(centerX - dx, centerX + dx, centerY - dy, color);
+        }
+    }
+
+    /**
+     * Scanline filled ellipse with radii rx, ry: per row the half
+     * width only shrinks, so it is found incrementally.
+     */
+    public void fillEllipse(int centerX, int centerY, int rx, int ry, int color) {
+        if (rx < 0 || ry < 0) return;
+        long rx2 = (long) rx * rx;
+        long ry2 = (long) ry * ry;
+        long limit = rx2 * ry2;
+        int dx = rx;
+        for (int dy = 0; dy <= ry; dy++) {
+            long rowTerm = (long) dy * dy * rx2;
+            while (dx > 0 && (long) dx * dx * ry2 + rowTerm > limit) dx--;
+            fillSpan(centerX - dx, centerX + dx, centerY + dy, color);
+            if (dy > 0) fillSpan(centerX - dx, centerX + dx, centerY - dy, color);
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,254 @@
+/**
+ * PixelTransform - Geometric transforms on row-major byte buffers
+ *
+ * - Quarter turns of square buffers rotate in place, four pixels per
+ *   cycle, without any temporary storage
+ * - Quarter turns of other buffers go through a shared scratch copy
+ *   in TILE x TILE blocks, so reads and writes both stay local
+ * - Flips reverse rows in place or swap whole rows with arraycopy
+ * - rotateScale() samples any angle and scale nearest-neighbour; the
+ *   smooth variant samples the source as if enlarged 4x by two Scale2x
+ *   passes (as RotSprite does) so diagonal edges stay clean instead of
+ *   jagged. Each sample is worked out from the source neighbourhood,
+ *   so the enlarged image is never built.
+ *
+ * Angles are whole degrees clockwise and scales are percentages; trig
+ * is 16.16 fixed point from a quarter-wave sine table. The scratch
+ * buffer (one copy of the source) is static and only grows, like
+ * PixelLayer's flood fill stack.
+ */
+public class PixelTransform {
+
+    public static final int MIN_SCALE = 10;
+    public static final int MAX_SCALE = 1600;
+
+    private static final int TILE = 16;
+    private static final int SMOOTH_FACTOR = 4;
+
+    // 65536 * sin(degrees), 0..90
+    private static final int[] SINE = {
+        0, 1144, 2287, 3430, 4572, 5712, 6850, 7987, 9121, 10252,
+        11380, 12505, 13626, 14742, 15855, 16962, 18064, 19161, 20252, 21336,
+        22415, 23486, 24550, 25607, 26656, 27697, 28729, 29753, 30767, 31772,
+        32768, 33754, 34729, 35693, 36647, 37590, 38521, 39441, 40348, 41243,
+        42126, 42995, 43852, 44695, 45525, 46341, 47143, 47930, 48703, 49461,
+        50203, 50931, 51643, 52339, 53020, 53684, 54332, 54963, 55578, 56175,
+        56756, 57319, 57865, 58393, 58903, 59396, 59870, 60326, 60764, 61183,
+        61584, 61966, 62328, 62672, 62997, 63303, 63589, 63856, 64104, 64332,
+        64540, 64729, 64898, 65048, 65177, 65287, 65376, 65446, 65496, 65526,
+        65536
+    };
+
+    private static byte[] scratch;
+
+    /**
+     * Reverses every row (horizontal flip).
+     */
+    public static void mirror(byte[] px, int width, int height) {
+        for (int row = 0; row < px.length && height > 0; row += width, height--) {
+            int i = row;
+            int j = row + width - 1;
+            while (i < j) {
+                byte t = px[i];
+                px[i++] = px[j];
+                px[j--] = t;
+            }
+        }
+    }
+
+    /**
+     * Swaps rows top to bottom (vertical flip).
+     */
+    public static void flip(byte[] px, int width, int height) {
+        byte[] row = scratch(width);
+        int top = 0;
+        int bottom = (height - 1) * width;
+        while (top < bottom) {
+            System.arraycopy(px, top, row, 0, width);
+            System.arraycopy(px, bottom, px, top, width);
+            System.arraycopy(row, 0, px, bottom, width);
+            top += width;
+            bottom -= width;
+        }
+    }
+
+    /**
+     * Rotates by quarterTurns * 90 degrees clockwise (negative turns go
+     * counter-clockwise). For odd turns the buffer afterwards holds a
+     * height x width image; the caller swaps its dimensions.
+     */
+    public static void rotate(byte[] px, int width, int height, int quarterTurns) {
+        int turns = quarterTurns & 3;
+        if (turns == 0) return;
+        int size = width * height;
+        if (turns == 2) {
+            int i = 0;
+            int j = size - 1;
+            while (i < j) {
+                byte t = px[i];
+                px[i++] = px[j];
+                px[j--] = t;
+            }
+        } else if (width == height) {
+            rotateSquare(px, width, turns == 1);
+        } else {
+            byte[] src = scratch(size);
+            System.arraycopy(px, 0, src, 0, size);
+            rotateTiled(src, width, height, px, turns == 1);
+        }
+    }
+
+    // Each pixel of the outer ring trades places with its three
+    // rotated partners, then the next ring inwards
+    private static void rotateSquare(byte[] px, int n, boolean clockwise) {
+        int last = n - 1;
+        for (int y = 0; y < n / 2; y++) {
+            for (int x = y; x < last - y; x++) {
+                int a = y * n + x;
+                int b = x * n + (last - y);
+                int c = (last - y) * n + (last - x);
+                int d = (last - x) * n + y;
+                byte t = px[a];
+                if (clockwise) {
+                    px[a] = px[d];
+                    px[d] = px[c];
+                    px[c] = px[b];
+                    px[b] = t;
+                } else {
+                    px[a] = px[b];
+                    px[b] = px[c];
+                    px[c] = px[d];
+                    px[d] = t;
+                }
+            }
+        }
+    }
+
+    // dst is height pixels wide: clockwise (x, y) -> (height-1-y, x),
+    // counter-clockwise (x, y) -> (y, width-1-x)
+    private static void rotateTiled(byte[] src, int width, int height, byte[] dst, boolean clockwise) {
+        for (int ty = 0; ty < height; ty += TILE) {
+            int yEnd = Math.min(ty + TILE, height);
+            for (int tx = 0; tx < width; tx += TILE) {
+                int xEnd = Math.min(tx + TILE, width);
+                for (int y = ty; y < yEnd; y++) {
+                    int s = y * width + tx;
+                    if (clockwise) {
+                        int d = tx * height + (height - 1 - y);
+                        for (int x = tx; x < xEnd; x++, d += height) {
+                            dst[d] = src[s++];
+                        }
+                    } else {
+                        int d = (width - 1 - tx) * height + y;
+                        for (int x = tx; x < xEnd; x++, d -= height) {
+                            dst[d] = src[s++];
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Rotates by degrees clockwise and scales by scalePercent about the
+     * centre, keeping the buffer size. Pixels mapped from outside the
+     * source become 0. scalePercent is clamped to MIN_SCALE..MAX_SCALE.
+     */
+    public static void rotateScale(byte[] px, int width, int height, int degrees,
+                                   int scalePercent, boolean smooth) {
+        scalePercent = Math.max(MIN_SCALE, Math.min(MAX_SCALE, scalePercent));
+        int size = width * height;
+        int factor = smooth ? SMOOTH_FACTOR : 1;
+        int srcW = width * factor;
+        int srcH = height * factor;
+        byte[] src = scratch(size);
+        System.arraycopy(px, 0, src, 0, size);
+
+        // Source step per destination pixel, 16.16
+        long cos = cos(degrees);
+        long sin = sin(degrees);
+        int ux = (int) (cos * 100 * factor / scalePercent);
+        int uy = (int) (sin * 100 * factor / scalePercent);
+
+        // Pixel centres relative to the middle, in 16.16
+        long rx0 = (long) (1 - width) << 15;
+        int o = 0;
+        for (int y = 0; y < height; y++) {
+            long ry = (long) (2 * y + 1 - height) << 15;
+            int sx = (srcW << 15) + (int) ((rx0 * ux + ry * uy) >> 16);
+            int sy = (srcH << 15) + (int) ((ry * ux - rx0 * uy) >> 16);
+            for (int x = 0; x < width; x++, o++) {
+                int ix = sx >> 16;
+                int iy = sy >> 16;
+                if (sx < 0 || sy < 0 || ix >= srcW || iy >= srcH) {
+                    px[o] = 0;
+                } else if (smooth) {
+                    px[o] = sample4x(src, width, height, ix, iy);
+                } else {
+                    px[o] = src[iy * width + ix];
+                }
+                sx += ux;
+                sy -= uy;
+            }
+        }
+    }
+
+    // Pixel (x, y) of the source after two Scale2x passes: one Scale2x
+    // step over the 2x image, whose pixels come from scale2x() in turn
+    private static byte sample4x(byte[] src, int width, int height, int x, int y) {
+        int midW = width * 2;
+        int midH = height * 2;
+        int mx = x >> 1;
+        int my = y >> 1;
+        byte p = sample2x(src, width, height, mx, my);
+        byte a = my > 0 ? sample2x(src, width, height, mx, my - 1) : p;
+        byte e = my < midH - 1 ? sample2x(src, width, height, mx, my + 1) : p;
+        byte c = mx > 0 ? sample2x(src, width, height, mx - 1, my) : p;
+        byte b = mx < midW - 1 ? sample2x(src, width, height, mx + 1, my) : p;
+        return scale2x(p, a, b, c, e, x & 1, y & 1);
+    }
+
+    private static byte sample2x(byte[] src, int width, int height, int x, int y) {
+        int sx = x >> 1;
+        int row = (y >> 1) * width;
+        byte p = src[row + sx];
+        byte a = row > 0 ? src[row - width + sx] : p;
+        byte e = row < (height - 1) * width ? src[row + width + sx] : p;
+        byte c = sx > 0 ? src[row + sx - 1] : p;
+        byte b = sx < width - 1 ? src[row + sx + 1] : p;
+        return scale2x(p, a, b, c, e, x & 1, y & 1);
+    }
+
+    // Corner (right, down) of the 2x2 block Scale2x makes from pixel p
+    // with neighbours a (above), b (right), c (left) and e (below);
+    // corners follow matching neighbours so diagonals are rounded
+    private static byte scale2x(byte p, byte a, byte b, byte c, byte e, int right, int down) {
+        if (a == e || c == b) return p;
+        if (down == 0) {
+            if (right == 0) return c == a ? c : p;
+            return a == b ? b : p;
+        }
+        if (right == 0) return c == e ? c : p;
+        return e == b ? b : p;
+    }
+
+    public static int sin(int degrees) {
+        int d = degrees % 360;
+        if (d < 0) d += 360;
+        if (d <= 90) return SINE[d];
+        if (d <= 180) return SINE[180 - d];
+        if (d <= 270) return -SINE[d - 180];
+        return -SINE[360 - d];
+    }
+
+    public static int cos(int degrees) {
+        return sin(degrees + 90);
+    }
+
+    private static byte[] scratch(int size) {
+        if (scratch == null || scratch.length < size) {
+            scratch = new byte[size];
+        }
+        return scratch;
+    }
+}
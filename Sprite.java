@@ -8,10 +8,26 @@ public class Sprite {
     private Palette palette;
     private String name;
     private long lastModified;
+    private Frame[] compositeCache;
     
     public static final int MAX_WIDTH = 256;
     public static final int MAX_HEIGHT = 256;
     public static final int MAX_FRAMES = 64;
+    private static final int COMPOSITE_CACHE_FRAMES = 2;
+    
+    // Batch operation scopes
+    public static final int SCOPE_LAYER = 0;      // active layer of the current frame
+    public static final int SCOPE_FRAME = 1;      // every layer of the current frame
+    public static final int SCOPE_ALL_FRAMES = 2; // active layer position in every frame
+    public static final int SCOPE_ALL = 3;        // every layer of every frame
+    public static final int SCOPE_COUNT = 4;
+    private static final String[] SCOPE_NAMES = { "Layer", "Frame", "Layer, all frames", "Everything" };
+    
+    public static final int FLIP_HORIZONTAL = 0;
+    public static final int FLIP_VERTICAL = 1;
+    public static final int ROTATE_90 = 2;
+    public static final int ROTATE_180 = 3;
+    public static final int ROTATE_270 = 4;
     
     public Sprite(int width, int height) {
         if (width < 8 || width > MAX_WIDTH || height < 8 || height > MAX_HEIGHT) {
@@ -26,6 +42,7 @@ public class Sprite {
         this.palette = Palette.createDefault32();
         this.name = "Sprite_" + System.currentTimeMillis();
         this.lastModified = System.currentTimeMillis();
+        this.compositeCache = new Frame[COMPOSITE_CACHE_FRAMES];
     }
     
     public int addFrame() {
@@ -57,6 +74,9 @@ public class Sprite {
         if (index < 0 || index >= maxFrames || frames[index] == null) return false;
         int count = getFrameCount();
         if (count <= 1) return false;
+        for (int i = 0; i < compositeCache.length; i++) {
+            if (compositeCache[i] == frames[index]) compositeCache[i] = null;
+        }
         frames[index] = null;
         if (currentFrameIndex == index) {
             for (int i = index - 1; i >= 0; i--) {
@@ -121,9 +141,34 @@ public class Sprite {
     }
     
     public int[] compositeCurrentFrame() {
-        Frame frame = getCurrentFrame();
+        return compositeFrame(currentFrameIndex);
+    }
+    
+    public int[] compositeFrame(int index) {
+        Frame frame = getFrame(index);
         if (frame == null) return null;
-        return frame.composite();
+        retainComposite(frame);
+        frame.setLayerCachesEnabled(index == currentFrameIndex);
+        return frame.composite(palette.getARGBTable());
+    }
+    
+    private void retainComposite(Frame frame) {
+        if (compositeCache[0] == frame) return;
+        int pos = compositeCache.length - 1;
+        for (int i = 1; i < compositeCache.length; i++) {
+            if (compositeCache[i] == frame) {
+                pos = i;
+                break;
+            }
+        }
+        Frame evicted = compositeCache[pos];
+        for (int i = pos; i > 0; i--) {
+            compositeCache[i] = compositeCache[i - 1];
+        }
+        compositeCache[0] = frame;
+        if (evicted != null && evicted != frame) {
+            evicted.releaseCompositeCache();
+        }
     }
     
     public int getPixel(int x, int y) {
@@ -162,6 +207,25 @@ public class Sprite {
         return null;
     }
     
+    public Frame[] getFrameSlots() {
+        Frame[] slots = new Frame[maxFrames];
+        System.arraycopy(frames, 0, slots, 0, maxFrames);
+        return slots;
+    }
+    
+    public void restoreFrameSlots(Frame[] slots, int current) {
+        System.arraycopy(slots, 0, frames, 0, maxFrames);
+        for (int i = 0; i < compositeCache.length; i++) {
+            Frame cached = compositeCache[i];
+            if (cached != null) {
+                cached.releaseCompositeCache();
+                compositeCache[i] = null;
+            }
+        }
+        currentFrameIndex = current;
+        lastModified = System.currentTimeMillis();
+    }
+    
     public String getName() { return name; }
     public void setName(String n) { this.name = n; }
     public long getLastModified() { return lastModified; }
@@ -180,48 +244,173 @@ public class Sprite {
         return size;
     }
     
-    public void flipHorizontal() {
-        Frame frame = getCurrentFrame();
-        if (frame == null) return;
-        Layer layer = frame.getActiveLayer();
-        if (layer instanceof PixelLayer) {
-            ((PixelLayer) layer).flipHorizontal();
+    // Palette edits that keep the artwork intact: the palette change
+    // returns a remap table, applied here to every layer of every frame.
+    // Each returns the remap (null if nothing changed).
+    public int[] removePaletteColor(int index) {
+        return remapPixels(palette.removeColorRemap(index));
+    }
+    
+    public int[] movePaletteColor(int from, int to) {
+        return remapPixels(palette.moveColor(from, to));
+    }
+    
+    public int[] mergeDuplicateColors() {
+        return remapPixels(palette.mergeDuplicates());
+    }
+    
+    public int[] sortPalette(int key) {
+        return remapPixels(palette.sort(key));
+    }
+    
+    public int[] remapPixels(int[] remap) {
+        if (remap == null) return null;
+        byte[] lut = new byte[256];
+        for (int i = 0; i < 256; i++) {
+            lut[i] = (byte) remap[i];
         }
+        for (int f = 0; f < maxFrames; f++) {
+            Frame frame = frames[f];
+            if (frame == null) continue;
+            for (int l = 0; l < frame.getLayerCount(); l++) {
+                Layer layer = frame.getLayer(l);
+                if (layer instanceof PixelLayer) {
+                    ((PixelLayer) layer).remap(lut);
+                }
+            }
+        }
+        lastModified = System.currentTimeMillis();
+        return remap;
+    }
+    
+    public void flipHorizontal() {
+        transform(FLIP_HORIZONTAL, SCOPE_LAYER, null);
     }
     
     public void flipVertical() {
-        Frame frame = getCurrentFrame();
-        if (frame == null) return;
-        Layer layer = frame.getActiveLayer();
-        if (layer instanceof PixelLayer) {
-            ((PixelLayer) layer).flipVertical();
-        }
+        transform(FLIP_VERTICAL, SCOPE_LAYER, null);
     }
     
     public void rotate90() {
-        Frame frame = getCurrentFrame();
-        if (frame == null) return;
-        Layer layer = frame.getActiveLayer();
-        if (layer instanceof PixelLayer) {
-            ((PixelLayer) layer).rotate90();
-        }
+        transform(ROTATE_90, SCOPE_LAYER, null);
     }
     
     public void invertColors() {
-        Frame frame = getCurrentFrame();
-        if (frame == null) return;
-        Layer layer = frame.getActiveLayer();
-        if (layer instanceof PixelLayer) {
-            ((PixelLayer) layer).invertColors(palette);
-        }
+        applyFilter(new ColorFilter(ColorFilter.INVERT, 0), SCOPE_LAYER, null);
     }
     
     public void grayscale() {
-        Frame frame = getCurrentFrame();
-        if (frame == null) return;
-        Layer layer = frame.getActiveLayer();
-        if (layer instanceof PixelLayer) {
-            ((PixelLayer) layer).grayscale(palette);
+        applyFilter(new ColorFilter(ColorFilter.GRAYSCALE, 0), SCOPE_LAYER, null);
+    }
+    
+    // Batch operations: one pass over the layers in scope. With an undo
+    // manager the whole batch becomes a single undo step.
+    public boolean transform(int op, int scope, UndoManager undo) {
+        int turns = op == ROTATE_90 ? 1 : op == ROTATE_180 ? 2 : op == ROTATE_270 ? 3 : 0;
+        if (turnsWholeSprite(op)) {
+            if (undo != null) undo.recordRotation(turns);
+            rotate(turns);
+            return true;
+        }
+        PixelLayer[] layers = getLayers(scope);
+        if (undo != null) undo.beginBatch();
+        for (int i = 0; i < layers.length; i++) {
+            PixelLayer layer = layers[i];
+            if (undo != null) undo.beginLayer(layer);
+            if (op == FLIP_HORIZONTAL) {
+                layer.flipHorizontal();
+            } else if (op == FLIP_VERTICAL) {
+                layer.flipVertical();
+            } else {
+                layer.rotate(turns);
+            }
+            if (undo != null) undo.endLayer();
+        }
+        if (undo != null) undo.endBatch();
+        lastModified = System.currentTimeMillis();
+        return layers.length > 0;
+    }
+    
+    /**
+     * True when op ignores the scope: turning single layers of a
+     * non-square sprite would leave the frames with mismatched sizes,
+     * so the whole sprite turns instead.
+     */
+    public boolean turnsWholeSprite(int op) {
+        return (op == ROTATE_90 || op == ROTATE_270) && width != height;
+    }
+    
+    // Free rotation and scaling keep the canvas size; see PixelTransform
+    public boolean rotateScale(int degrees, int scalePercent, boolean smooth, int scope, UndoManager undo) {
+        PixelLayer[] layers = getLayers(scope);
+        if (undo != null) undo.beginBatch();
+        for (int i = 0; i < layers.length; i++) {
+            if (undo != null) undo.beginLayer(layers[i]);
+            layers[i].rotateScale(degrees, scalePercent, smooth);
+            if (undo != null) undo.endLayer();
         }
+        if (undo != null) undo.endBatch();
+        lastModified = System.currentTimeMillis();
+        return layers.length > 0;
+    }
+    
+    /**
+     * Turns every layer of every frame by quarter turns clockwise;
+     * odd turns swap the sprite size.
+     */
+    public void rotate(int quarterTurns) {
+        for (int i = 0; i < maxFrames; i++) {
+            if (frames[i] != null) frames[i].rotate(quarterTurns);
+        }
+        if ((quarterTurns & 1) != 0) {
+            int temp = width;
+            width = height;
+            height = temp;
+        }
+        lastModified = System.currentTimeMillis();
+    }
+    
+    public boolean applyFilter(ColorFilter filter, int scope, UndoManager undo) {
+        PixelLayer[] layers = getLayers(scope);
+        byte[] lut = filter.buildLUT(palette);
+        if (undo != null) undo.beginBatch();
+        for (int i = 0; i < layers.length; i++) {
+            if (undo != null) undo.beginLayer(layers[i]);
+            layers[i].remap(lut);
+            if (undo != null) undo.endLayer();
+        }
+        if (undo != null) undo.endBatch();
+        lastModified = System.currentTimeMillis();
+        return layers.length > 0;
+    }
+    
+    public PixelLayer[] getLayers(int scope) {
+        Frame currentFrame = getCurrentFrame();
+        int active = currentFrame != null ? currentFrame.getActiveLayerIndex() : 0;
+        boolean allFrames = scope == SCOPE_ALL_FRAMES || scope == SCOPE_ALL;
+        boolean allLayers = scope == SCOPE_FRAME || scope == SCOPE_ALL;
+        PixelLayer[] layers = null;
+        // First pass counts, second fills
+        for (int pass = 0; pass < 2; pass++) {
+            int count = 0;
+            for (int f = 0; f < maxFrames; f++) {
+                Frame frame = frames[f];
+                if (frame == null || (!allFrames && f != currentFrameIndex)) continue;
+                for (int l = 0; l < frame.getLayerCount(); l++) {
+                    if (!allLayers && l != active) continue;
+                    Layer layer = frame.getLayer(l);
+                    if (layer instanceof PixelLayer) {
+                        if (layers != null) layers[count] = (PixelLayer) layer;
+                        count++;
+                    }
+                }
+            }
+            if (layers == null) layers = new PixelLayer[count];
+        }
+        return layers;
+    }
+    
+    public static String getScopeName(int scope) {
+        return SCOPE_NAMES[scope];
     }
-}
\ No newline at end of file
+}
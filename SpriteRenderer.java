@@ -0,0 +1,154 @@
+import javax.microedition.lcdui.*;
+
+/**
+ * SpriteRenderer - Zoomed sprite drawing for the editor
+ *
+ * Strategies:
+ * - PIXELS: one setColor + fillRect per pixel (reference path)
+ * - SPANS: one fillRect per horizontal run of equal color
+ * - RGB: scaled line block built in an int[] and blitted with drawRGB
+ * - AUTO: RGB at low zoom (many tiny cells), SPANS at high zoom
+ *
+ * Counts native Graphics calls until resetCounters() so the
+ * editor can show calls-per-paint.
+ */
+public class SpriteRenderer {
+
+    public static final int MODE_AUTO = 0;
+    public static final int MODE_PIXELS = 1;
+    public static final int MODE_SPANS = 2;
+    public static final int MODE_RGB = 3;
+
+    private static final String[] MODE_NAMES = { "Auto", "Pixel", "Span", "RGB" };
+
+    // Above this zoom a run is already large on screen and spans win
+    private static final int RGB_MAX_ZOOM = 4;
+
+    private int mode = MODE_AUTO;
+    private int[] blockBuffer;
+
+    private int setColorCalls;
+    private int fillRectCalls;
+    private int drawRGBCalls;
+
+    public void render(Graphics g, int[] pixels, int spriteW,
+                       int srcX, int srcY, int srcW, int srcH,
+                       int dstX, int dstY, int zoom) {
+        if (pixels == null || srcW <= 0 || srcH <= 0) return;
+
+        int strategy = mode;
+        if (strategy == MODE_AUTO) {
+            strategy = zoom <= RGB_MAX_ZOOM ? MODE_RGB : MODE_SPANS;
+        }
+
+        switch (strategy) {
+            case MODE_PIXELS:
+                renderPixels(g, pixels, spriteW, srcX, srcY, srcW, srcH, dstX, dstY, zoom);
+                break;
+            case MODE_RGB:
+                renderRGB(g, pixels, spriteW, srcX, srcY, srcW, srcH, dstX, dstY, zoom);
+                break;
+            default:
+                renderSpans(g, pixels, spriteW, srcX, srcY, srcW, srcH, dstX, dstY, zoom);
+                break;
+        }
+    }
+
+    private void renderPixels(Graphics g, int[] pixels, int spriteW,
+                              int srcX, int srcY, int srcW, int srcH,
+                              int dstX, int dstY, int zoom) {
+        for (int py = 0; py < srcH; py++) {
+            int rowStart = (srcY + py) * spriteW + srcX;
+            int sy = dstY + py * zoom;
+            for (int px = 0; px < srcW; px++) {
+                int color = pixels[rowStart + px];
+                if (color != 0) {
+                    g.setColor(color);
+                    g.fillRect(dstX + px * zoom, sy, zoom, zoom);
+                    setColorCalls++;
+                    fillRectCalls++;
+                }
+            }
+        }
+    }
+
+    private void renderSpans(Graphics g, int[] pixels, int spriteW,
+                             int srcX, int srcY, int srcW, int srcH,
+                             int dstX, int dstY, int zoom) {
+        int lastColor = 0;
+        for (int py = 0; py < srcH; py++) {
+            int rowStart = (srcY + py) * spriteW + srcX;
+            int sy = dstY + py * zoom;
+            int px = 0;
+            while (px < srcW) {
+                int color = pixels[rowStart + px];
+                int runEnd = px + 1;
+                while (runEnd < srcW && pixels[rowStart + runEnd] == color) {
+                    runEnd++;
+                }
+                if (color != 0) {
+                    if (color != lastColor) {
+                        g.setColor(color);
+                        lastColor = color;
+                        setColorCalls++;
+                    }
+                    g.fillRect(dstX + px * zoom, sy, (runEnd - px) * zoom, zoom);
+                    fillRectCalls++;
+                }
+                px = runEnd;
+            }
+        }
+    }
+
+    private void renderRGB(Graphics g, int[] pixels, int spriteW,
+                           int srcX, int srcY, int srcW, int srcH,
+                           int dstX, int dstY, int zoom) {
+        int lineW = srcW * zoom;
+        int blockSize = lineW * zoom;
+        if (blockBuffer == null || blockBuffer.length < blockSize) {
+            blockBuffer = new int[blockSize];
+        }
+        int[] block = blockBuffer;
+        for (int py = 0; py < srcH; py++) {
+            int rowStart = (srcY + py) * spriteW + srcX;
+            int out = 0;
+            if (zoom == 1) {
+                System.arraycopy(pixels, rowStart, block, 0, srcW);
+            } else {
+                for (int px = 0; px < srcW; px++) {
+                    int color = pixels[rowStart + px];
+                    for (int z = 0; z < zoom; z++) {
+                        block[out++] = color;
+                    }
+                }
+                for (int z = 1; z < zoom; z++) {
+                    System.arraycopy(block, 0, block, z * lineW, lineW);
+                }
+            }
+            g.drawRGB(block, 0, lineW, dstX, dstY + py * zoom, lineW, zoom, true);
+            drawRGBCalls++;
+        }
+    }
+
+    public void resetCounters() {
+        setColorCalls = 0;
+        fillRectCalls = 0;
+        drawRGBCalls = 0;
+    }
+
+    public void nextMode() {
+        mode = (mode + 1) % MODE_NAMES.length;
+    }
+
+    public int getMode() { return mode; }
+    public void setMode(int m) { if (m >= 0 && m < MODE_NAMES.length) mode = m; }
+    public String getModeName() { return MODE_NAMES[mode]; }
+
+    public int getSetColorCalls() { return setColorCalls; }
+    public int getFillRectCalls() { return fillRectCalls; }
+    public int getDrawRGBCalls() { return drawRGBCalls; }
+
+    public int getTotalCalls() {
+        return setColorCalls + fillRectCalls + drawRGBCalls;
+    }
+}
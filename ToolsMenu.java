@@ -8,6 +8,10 @@ import javax.microedition.lcdui.*;
  * - Image effects (invert, grayscale, flip, rotate)
  * - View settings (grid, onion skin, timeline)
  * - Drawing modes (symmetry)
+ * - Palette housekeeping (artwork is remapped to match)
+ * - Color filters (ColorFilter, evaluated per palette entry)
+ * - Effect scope: layer, frame, one layer in every frame or everything
+ * - Transforms (quarter turns, free rotation, scaling)
  */
 public class ToolsMenu extends List implements CommandListener {
     
@@ -16,6 +20,9 @@ public class ToolsMenu extends List implements CommandListener {
     private Command backCmd = new Command("Back", Command.BACK, 1);
     private Command selectCmd = new Command("Select", Command.OK, 1);
     
+    // Palette swap moves a ramp of this many colors onto the next one
+    private static final int SWAP_RUN = 4;
+    
     public ToolsMenu(PixelArtists midlet, EditorCanvas canvas) {
         super("Tools & Effects", List.IMPLICIT);
         this.midlet = midlet;
@@ -51,6 +58,33 @@ public class ToolsMenu extends List implements CommandListener {
         append("Symmetry Horizontal", null);
         append("Symmetry Vertical", null);
         
+        // Palette
+        append("=== PALETTE ===", null);
+        append("Remove Current Color", null);
+        append("Merge Duplicate Colors", null);
+        append("Sort by Hue", null);
+        append("Sort by Brightness", null);
+        
+        // Filters
+        append("=== FILTERS ===", null);
+        append("Brighten", null);
+        append("Darken", null);
+        append("More Contrast", null);
+        append("Less Contrast", null);
+        append("Hue Shift +30°", null);
+        append("Posterize (4 levels)", null);
+        append("Palette Swap (current run -> next)", null);
+        append("Apply to: " + Sprite.getScopeName(canvas.getEffectScope()), null);
+        
+        // Transform section
+        append("=== TRANSFORM ===", null);
+        append("Rotate 90° counter-clockwise", null);
+        append("Rotate 180°", null);
+        append("Rotate 15°", null);
+        append("Rotate 45° (smooth)", null);
+        append("Scale 200%", null);
+        append("Scale 50%", null);
+        
         addCommand(backCmd);
         addCommand(selectCmd);
         setCommandListener(this);
@@ -73,7 +107,7 @@ public class ToolsMenu extends List implements CommandListener {
         if (sprite == null) return;
         
         // Skip section headers
-        if (idx == 0 || idx == 9 || idx == 15 || idx == 19) return;
+        if (idx == 0 || idx == 9 || idx == 15 || idx == 19 || idx == 22 || idx == 27 || idx == 36) return;
         
         // Tools (idx 1-8)
         if (idx >= 1 && idx <= 8) {
@@ -85,32 +119,25 @@ public class ToolsMenu extends List implements CommandListener {
             return;
         }
         
-        // Effects (idx 10-14)
+        // Effects (idx 10-14) and filters (idx 28-34) honor the scope at idx 35
         if (idx == 10) { // Invert Colors
-            sprite.invertColors();
+            canvas.applyFilter(new ColorFilter(ColorFilter.INVERT, 0));
             midlet.showAlert("Effect", "Colors inverted", AlertType.INFO);
             midlet.vibrate(100);
-            canvas.repaint();
         } else if (idx == 11) { // Grayscale
-            sprite.grayscale();
+            canvas.applyFilter(new ColorFilter(ColorFilter.GRAYSCALE, 0));
             midlet.showAlert("Effect", "Converted to grayscale", AlertType.INFO);
             midlet.vibrate(100);
-            canvas.repaint();
         } else if (idx == 12) { // Flip H
-            sprite.flipHorizontal();
+            canvas.applyTransform(Sprite.FLIP_HORIZONTAL);
             midlet.showAlert("Effect", "Flipped horizontally", AlertType.INFO);
             midlet.vibrate(100);
-            canvas.repaint();
         } else if (idx == 13) { // Flip V
-            sprite.flipVertical();
+            canvas.applyTransform(Sprite.FLIP_VERTICAL);
             midlet.showAlert("Effect", "Flipped vertically", AlertType.INFO);
             midlet.vibrate(100);
-            canvas.repaint();
         } else if (idx == 14) { // Rotate
-            sprite.rotate90();
-            midlet.showAlert("Effect", "Rotated 90° clockwise", AlertType.INFO);
-            midlet.vibrate(100);
-            canvas.repaint();
+            applyTransform(sprite, Sprite.ROTATE_90, "Effect", "Rotated 90° clockwise");
         }
         
         // View settings (idx 16-18)
@@ -128,6 +155,89 @@ public class ToolsMenu extends List implements CommandListener {
         } else if (idx == 21) { // Symmetry V
             midlet.showAlert("Drawing", "Press V to toggle vertical symmetry\n(QWERTY keyboards)", AlertType.INFO);
         }
+        
+        // Palette (idx 23-26)
+        if (idx >= 23 && idx <= 26) {
+            int[] remap;
+            if (idx == 23) {
+                remap = sprite.removePaletteColor(canvas.getCurrentColorIndex());
+            } else if (idx == 24) {
+                remap = sprite.mergeDuplicateColors();
+            } else {
+                remap = sprite.sortPalette(idx == 25 ? Palette.SORT_HUE : Palette.SORT_LUMA);
+            }
+            if (remap == null) {
+                midlet.showAlert("Palette", "Nothing to change", AlertType.INFO);
+                return;
+            }
+            canvas.paletteRemapped(remap);
+            midlet.showAlert("Palette", sprite.getPalette().getColorCount() + " colors", AlertType.INFO);
+            midlet.vibrate(100);
+        }
+        
+        // Filters (idx 28-33)
+        if (idx >= 28 && idx <= 33) {
+            ColorFilter filter;
+            switch (idx) {
+                case 28: filter = new ColorFilter(ColorFilter.BRIGHTNESS, 24); break;
+                case 29: filter = new ColorFilter(ColorFilter.BRIGHTNESS, -24); break;
+                case 30: filter = new ColorFilter(ColorFilter.CONTRAST, 25); break;
+                case 31: filter = new ColorFilter(ColorFilter.CONTRAST, -25); break;
+                case 32: filter = new ColorFilter(ColorFilter.HUE_SHIFT, 30); break;
+                default: filter = new ColorFilter(ColorFilter.POSTERIZE, 4); break;
+            }
+            canvas.applyFilter(filter);
+            midlet.showAlert("Filter", getString(idx) + " applied", AlertType.INFO);
+            midlet.vibrate(100);
+        }
+        
+        if (idx == 34) { // Palette swap
+            Palette palette = sprite.getPalette();
+            int from = canvas.getCurrentColorIndex();
+            int to = from + SWAP_RUN;
+            if (from < 1 || to >= palette.getColorCount()) {
+                midlet.showAlert("Filter", "No next run of " + SWAP_RUN + " colors", AlertType.WARNING);
+                return;
+            }
+            int count = Math.min(SWAP_RUN, palette.getColorCount() - to);
+            canvas.applyFilter(ColorFilter.paletteSwap(from, to, count));
+            midlet.showAlert("Filter", "Colors " + from + "-" + (from + count - 1)
+                + " -> " + to + "-" + (to + count - 1), AlertType.INFO);
+            midlet.vibrate(100);
+        }
+        
+        if (idx == 35) { // Effect scope
+            canvas.cycleEffectScope();
+            set(idx, "Apply to: " + Sprite.getScopeName(canvas.getEffectScope()), null);
+        }
+        
+        // Transforms (idx 37-42)
+        if (idx == 37) {
+            applyTransform(sprite, Sprite.ROTATE_270, "Transform", getString(idx) + " applied");
+        } else if (idx == 38) {
+            applyTransform(sprite, Sprite.ROTATE_180, "Transform", getString(idx) + " applied");
+        } else if (idx == 39) {
+            canvas.applyRotateScale(15, 100, false);
+        } else if (idx == 40) {
+            canvas.applyRotateScale(45, 100, true);
+        } else if (idx == 41) {
+            canvas.applyRotateScale(0, 200, false);
+        } else if (idx == 42) {
+            canvas.applyRotateScale(0, 50, false);
+        }
+        if (idx >= 39 && idx <= 42) {
+            midlet.showAlert("Transform", getString(idx) + " applied", AlertType.INFO);
+            midlet.vibrate(100);
+        }
+    }
+    
+    // Quarter turns of a non-square sprite turn every frame whatever
+    // the scope, so say so instead of the usual message
+    private void applyTransform(Sprite sprite, int op, String title, String message) {
+        boolean whole = sprite.turnsWholeSprite(op);
+        canvas.applyTransform(op);
+        midlet.showAlert(title, whole ? "Whole sprite rotated (non-square)" : message, AlertType.INFO);
+        midlet.vibrate(100);
     }
     
     public static void show(PixelArtists midlet, EditorCanvas canvas) {
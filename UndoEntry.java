@@ -0,0 +1,56 @@
+/**
+ * UndoEntry - One step of the undo journal
+ *
+ * PIXELS: bounding box of the changed area of one layer with the
+ * bytes before and after the edit (PackBits encoded once packed).
+ * A batch edit chains one PIXELS entry per layer through next.
+ * STRUCTURE: frame slots and the layer stack (plus opacity and
+ * visibility) of one frame before and after a layer/frame operation.
+ * ROTATE: quarter turns of the whole sprite, replayed rather than
+ * stored since they are lossless.
+ * Layer and frame objects are kept by reference, so deleted ones stay
+ * alive only as long as their entry does.
+ */
+public class UndoEntry {
+
+    public static final int TYPE_PIXELS = 0;
+    public static final int TYPE_STRUCTURE = 1;
+    public static final int TYPE_ROTATE = 2;
+
+    int type;
+    int cost;
+
+    // TYPE_PIXELS
+    PixelLayer layer;
+    int layerWidth;
+    int x;
+    int y;
+    int w;
+    int h;
+    byte[] before;
+    byte[] after;
+    boolean packed;
+    UndoEntry next;
+
+    // TYPE_STRUCTURE
+    Frame[] framesBefore;
+    Frame[] framesAfter;
+    int currentFrameBefore;
+    int currentFrameAfter;
+    Frame frame;
+    Layer[] layersBefore;
+    Layer[] layersAfter;
+    int activeBefore;
+    int activeAfter;
+    int[] opacityBefore;
+    int[] opacityAfter;
+    boolean[] visibleBefore;
+    boolean[] visibleAfter;
+
+    // TYPE_ROTATE
+    int quarterTurns;
+
+    UndoEntry(int type) {
+        this.type = type;
+    }
+}
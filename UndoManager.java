@@ -1,60 +1,519 @@
+/**
+ * UndoManager - Delta journal with undo/redo
+ *
+ * Pixel edits: beginEdit() copies the active layer once into a reused
+ * scratch buffer, endEdit() diffs it against the layer and keeps only
+ * the bounding box of changed pixels (old + new bytes).
+ *
+ * Layer/frame operations: beginStructure()/endStructure() record the
+ * frame slots, layer stack, opacity and visibility around the change.
+ *
+ * Batch edits (several layers, one step): beginBatch(), then
+ * beginLayer()/endLayer() around each layer, then endBatch(). Each
+ * layer is diffed as soon as it is done, so the scratch copy is reused.
+ * A batch larger than the budget cannot be kept and clears the journal.
+ *
+ * Whole-sprite quarter turns: recordRotation() keeps only the turn
+ * count, undo turns the other way.
+ *
+ * Storage:
+ * - Fixed ring of CAPACITY entries, no shifting on push or drop
+ * - Bounded by a byte budget (see budgetFromHeap()); the oldest
+ *   steps are dropped first. A new edit discards the redo branch.
+ * - Pixel entries more than HOT_ENTRIES steps back are PackBits
+ *   compressed in place and decoded only when applied
+ */
 public class UndoManager {
-    
-    private byte[][] undoStack;
-    private int[] undoWidth;
-    private int[] undoHeight;
-    private int stackIndex;
-    private int maxStates;
-    
-    public UndoManager(int maxStates) {
-        this.maxStates = maxStates;
-        this.undoStack = new byte[maxStates][];
-        this.undoWidth = new int[maxStates];
-        this.undoHeight = new int[maxStates];
-        this.stackIndex = -1;
-    }
-    
-    public void saveState(Sprite sprite) {
-        stackIndex++;
-        if (stackIndex >= maxStates) {
-            for (int i = 0; i < maxStates - 1; i++) {
-                undoStack[i] = undoStack[i + 1];
-                undoWidth[i] = undoWidth[i + 1];
-                undoHeight[i] = undoHeight[i + 1];
-            }
-            stackIndex = maxStates - 1;
-        }
-        
-        Frame frame = sprite.getCurrentFrame();
-        if (frame == null) return;
-        Layer layer = frame.getActiveLayer();
-        if (layer instanceof PixelLayer) {
-            byte[] pixels = ((PixelLayer) layer).getRawPixels();
-            undoStack[stackIndex] = new byte[pixels.length];
-            System.arraycopy(pixels, 0, undoStack[stackIndex], 0, pixels.length);
-            undoWidth[stackIndex] = sprite.getWidth();
-            undoHeight[stackIndex] = sprite.getHeight();
-        }
-    }
-    
-    public void undo(Sprite sprite) {
-        if (stackIndex < 0) return;
-        
+
+    public static final int DEFAULT_BUDGET = 128 * 1024;
+    public static final int MIN_BUDGET = 32 * 1024;
+    public static final int MAX_BUDGET = 1024 * 1024;
+    public static final int CAPACITY = 64;
+
+    private static final int ENTRY_OVERHEAD = 48;
+    private static final int HOT_ENTRIES = 2;
+
+    private UndoEntry[] ring;
+    private int head;
+    private int count;
+    private int applied;
+    private int usedBytes;
+    private int maxBytes;
+
+    private byte[] scratch;
+    private byte[] unpackBuffer;
+    private PixelLayer pendingLayer;
+    private int pendingWidth;
+    private UndoEntry pendingStructure;
+    private boolean batching;
+    private UndoEntry batchEntries;
+    private int batchCost;
+    private boolean batchOverflow;
+
+    public UndoManager(int maxBytes) {
+        this.maxBytes = maxBytes;
+        this.ring = new UndoEntry[CAPACITY];
+        this.head = 0;
+        this.count = 0;
+        this.applied = 0;
+        this.usedBytes = 0;
+    }
+
+    /**
+     * Budget of one eighth of the currently free heap, clamped to
+     * MIN_BUDGET..MAX_BUDGET.
+     */
+    public static int budgetFromHeap() {
+        long free = Runtime.getRuntime().freeMemory() / 8;
+        if (free < MIN_BUDGET) return MIN_BUDGET;
+        if (free > MAX_BUDGET) return MAX_BUDGET;
+        return (int) free;
+    }
+
+    public void beginEdit(Sprite sprite) {
+        endEdit();
         Frame frame = sprite.getCurrentFrame();
         if (frame == null) return;
         Layer layer = frame.getActiveLayer();
-        if (layer instanceof PixelLayer && undoStack[stackIndex] != null) {
-            byte[] pixels = ((PixelLayer) layer).getRawPixels();
-            System.arraycopy(undoStack[stackIndex], 0, pixels, 0, pixels.length);
+        if (!(layer instanceof PixelLayer)) return;
+        beginLayer((PixelLayer) layer);
+    }
+
+    public void endEdit() {
+        if (batching) return;
+        UndoEntry entry = diffPending();
+        if (entry != null) push(entry);
+    }
+
+    public void beginBatch() {
+        endEdit();
+        batching = true;
+        batchEntries = null;
+        batchCost = 0;
+        batchOverflow = false;
+    }
+
+    public void beginLayer(PixelLayer layer) {
+        byte[] pixels = layer.getRawPixels();
+        if (scratch == null || scratch.length < pixels.length) {
+            scratch = new byte[pixels.length];
+        }
+        System.arraycopy(pixels, 0, scratch, 0, pixels.length);
+        pendingLayer = layer;
+        pendingWidth = layer.getWidth();
+    }
+
+    public void endLayer() {
+        UndoEntry entry = diffPending();
+        if (entry == null) return;
+        if (!batching) {
+            push(entry);
+            return;
+        }
+        if (batchOverflow) return;
+        batchCost += entry.cost;
+        if (batchCost > maxBytes) {
+            batchOverflow = true;
+            batchEntries = null;
+            return;
+        }
+        entry.next = batchEntries;
+        batchEntries = entry;
+    }
+
+    public void endBatch() {
+        if (!batching) return;
+        endLayer();
+        batching = false;
+        UndoEntry entries = batchEntries;
+        batchEntries = null;
+        if (batchOverflow) {
+            // Older steps would replay over pixels the batch changed
+            clear();
+            return;
+        }
+        if (entries == null) return;
+        entries.cost = batchCost;
+        push(entries);
+    }
+
+    private UndoEntry diffPending() {
+        PixelLayer layer = pendingLayer;
+        pendingLayer = null;
+        if (layer == null) return null;
+        byte[] pixels = layer.getRawPixels();
+        int width = layer.getWidth();
+        if (width != pendingWidth || pixels.length > scratch.length) return null;
+        int height = pixels.length / width;
+
+        int minX = width, maxX = -1, minY = -1, maxY = -1;
+        for (int y = 0; y < height; y++) {
+            int row = y * width;
+            int x0 = 0;
+            while (x0 < width && pixels[row + x0] == scratch[row + x0]) x0++;
+            if (x0 == width) continue;
+            int x1 = width - 1;
+            while (pixels[row + x1] == scratch[row + x1]) x1--;
+            if (minY < 0) minY = y;
+            maxY = y;
+            if (x0 < minX) minX = x0;
+            if (x1 > maxX) maxX = x1;
+        }
+        if (minY < 0) return null;
+
+        UndoEntry entry = new UndoEntry(UndoEntry.TYPE_PIXELS);
+        entry.layer = layer;
+        entry.layerWidth = width;
+        entry.x = minX;
+        entry.y = minY;
+        entry.w = maxX - minX + 1;
+        entry.h = maxY - minY + 1;
+        entry.before = new byte[entry.w * entry.h];
+        entry.after = new byte[entry.w * entry.h];
+        for (int row = 0; row < entry.h; row++) {
+            int src = (entry.y + row) * width + entry.x;
+            System.arraycopy(scratch, src, entry.before, row * entry.w, entry.w);
+            System.arraycopy(pixels, src, entry.after, row * entry.w, entry.w);
+        }
+        entry.cost = ENTRY_OVERHEAD + entry.before.length * 2;
+        return entry;
+    }
+
+    public void beginStructure(Sprite sprite) {
+        endEdit();
+        UndoEntry entry = new UndoEntry(UndoEntry.TYPE_STRUCTURE);
+        entry.framesBefore = sprite.getFrameSlots();
+        entry.currentFrameBefore = sprite.getCurrentFrameIndex();
+        entry.frame = sprite.getCurrentFrame();
+        if (entry.frame != null) {
+            entry.layersBefore = entry.frame.getLayerStack();
+            entry.activeBefore = entry.frame.getActiveLayerIndex();
+            entry.opacityBefore = captureOpacity(entry.layersBefore);
+            entry.visibleBefore = captureVisibility(entry.layersBefore);
         }
-        
-        stackIndex--;
+        pendingStructure = entry;
     }
-    
+
+    public void endStructure(Sprite sprite) {
+        UndoEntry entry = pendingStructure;
+        pendingStructure = null;
+        if (entry == null) return;
+
+        Frame[] framesAfter = sprite.getFrameSlots();
+        int currentAfter = sprite.getCurrentFrameIndex();
+        boolean framesChanged = currentAfter != entry.currentFrameBefore
+            || !sameElements(entry.framesBefore, framesAfter);
+        if (framesChanged) {
+            entry.framesAfter = framesAfter;
+            entry.currentFrameAfter = currentAfter;
+        } else {
+            entry.framesBefore = null;
+        }
+
+        boolean layersChanged = false;
+        if (entry.frame != null) {
+            entry.layersAfter = entry.frame.getLayerStack();
+            entry.activeAfter = entry.frame.getActiveLayerIndex();
+            entry.opacityAfter = captureOpacity(entry.layersAfter);
+            entry.visibleAfter = captureVisibility(entry.layersAfter);
+            layersChanged = entry.activeAfter != entry.activeBefore
+                || !sameElements(entry.layersBefore, entry.layersAfter)
+                || !sameValues(entry.opacityBefore, entry.opacityAfter)
+                || !sameValues(entry.visibleBefore, entry.visibleAfter);
+        }
+        if (!layersChanged) {
+            entry.frame = null;
+            entry.layersBefore = entry.layersAfter = null;
+            entry.opacityBefore = entry.opacityAfter = null;
+            entry.visibleBefore = entry.visibleAfter = null;
+        }
+        if (!framesChanged && !layersChanged) return;
+
+        int cost = ENTRY_OVERHEAD;
+        if (framesChanged) {
+            cost += entry.framesBefore.length * 8;
+            for (int i = 0; i < entry.framesBefore.length; i++) {
+                Frame f = entry.framesBefore[i];
+                if (f != null && indexOf(framesAfter, f) < 0) cost += f.getMemorySize();
+                f = framesAfter[i];
+                if (f != null && indexOf(entry.framesBefore, f) < 0) cost += f.getMemorySize();
+            }
+        }
+        if (layersChanged) {
+            cost += (entry.layersBefore.length + entry.layersAfter.length) * 12;
+            for (int i = 0; i < entry.layersBefore.length; i++) {
+                if (indexOf(entry.layersAfter, entry.layersBefore[i]) < 0) {
+                    cost += entry.layersBefore[i].getMemorySize();
+                }
+            }
+            for (int i = 0; i < entry.layersAfter.length; i++) {
+                if (indexOf(entry.layersBefore, entry.layersAfter[i]) < 0) {
+                    cost += entry.layersAfter[i].getMemorySize();
+                }
+            }
+        }
+        entry.cost = cost;
+        push(entry);
+    }
+
+    public void recordRotation(int quarterTurns) {
+        endEdit();
+        UndoEntry entry = new UndoEntry(UndoEntry.TYPE_ROTATE);
+        entry.quarterTurns = quarterTurns;
+        entry.cost = ENTRY_OVERHEAD;
+        push(entry);
+    }
+
+    public boolean undo(Sprite sprite) {
+        endEdit();
+        if (applied <= 0) return false;
+        applied--;
+        apply(sprite, entryAt(applied), true);
+        return true;
+    }
+
+    public boolean redo(Sprite sprite) {
+        endEdit();
+        if (applied >= count) return false;
+        apply(sprite, entryAt(applied), false);
+        applied++;
+        return true;
+    }
+
+    public boolean canUndo() { return applied > 0 || pendingLayer != null; }
+    public boolean canRedo() { return applied < count; }
+    public int getUsedBytes() { return usedBytes; }
+    public int getMaxBytes() { return maxBytes; }
+    public int getStepCount() { return count; }
+
+    public void setMaxBytes(int maxBytes) {
+        this.maxBytes = maxBytes;
+        trimToBudget();
+    }
+
     public void clear() {
-        stackIndex = -1;
-        for (int i = 0; i < maxStates; i++) {
-            undoStack[i] = null;
+        for (int i = 0; i < CAPACITY; i++) {
+            ring[i] = null;
+        }
+        head = 0;
+        count = 0;
+        applied = 0;
+        usedBytes = 0;
+        pendingLayer = null;
+        pendingStructure = null;
+        batching = false;
+        batchEntries = null;
+        scratch = null;
+        unpackBuffer = null;
+    }
+
+    private void apply(Sprite sprite, UndoEntry entry, boolean undo) {
+        if (entry.type == UndoEntry.TYPE_PIXELS) {
+            for (; entry != null; entry = entry.next) {
+                applyPixels(entry, undo);
+            }
+            return;
+        }
+        if (entry.type == UndoEntry.TYPE_ROTATE) {
+            sprite.rotate(undo ? -entry.quarterTurns : entry.quarterTurns);
+            return;
+        }
+
+        Frame[] frames = undo ? entry.framesBefore : entry.framesAfter;
+        if (frames != null) {
+            sprite.restoreFrameSlots(frames, undo ? entry.currentFrameBefore : entry.currentFrameAfter);
+        }
+        Layer[] layers = undo ? entry.layersBefore : entry.layersAfter;
+        if (entry.frame != null && layers != null) {
+            int[] opacity = undo ? entry.opacityBefore : entry.opacityAfter;
+            boolean[] visible = undo ? entry.visibleBefore : entry.visibleAfter;
+            entry.frame.restoreLayerStack(layers, undo ? entry.activeBefore : entry.activeAfter);
+            for (int i = 0; i < layers.length; i++) {
+                layers[i].setOpacity(opacity[i]);
+                layers[i].setVisible(visible[i]);
+            }
+        }
+    }
+
+    private void applyPixels(UndoEntry entry, boolean undo) {
+        PixelLayer layer = entry.layer;
+        if (layer.getWidth() != entry.layerWidth) return;
+        byte[] pixels = layer.getRawPixels();
+        byte[] src = undo ? entry.before : entry.after;
+        if (entry.packed) {
+            int size = entry.w * entry.h;
+            if (unpackBuffer == null || unpackBuffer.length < size) {
+                unpackBuffer = new byte[size];
+            }
+            unpack(src, unpackBuffer);
+            src = unpackBuffer;
+        }
+        int width = entry.layerWidth;
+        for (int row = 0; row < entry.h; row++) {
+            System.arraycopy(src, row * entry.w, pixels, (entry.y + row) * width + entry.x, entry.w);
+        }
+        layer.markDirty(entry.x, entry.y, entry.w, entry.h);
+    }
+
+    private UndoEntry entryAt(int index) {
+        return ring[(head + index) % CAPACITY];
+    }
+
+    private void push(UndoEntry entry) {
+        while (count > applied) {
+            count--;
+            int slot = (head + count) % CAPACITY;
+            usedBytes -= ring[slot].cost;
+            ring[slot] = null;
+        }
+        if (count == CAPACITY) {
+            dropOldest();
+        }
+        ring[(head + count) % CAPACITY] = entry;
+        count++;
+        applied = count;
+        usedBytes += entry.cost;
+
+        if (count > HOT_ENTRIES) {
+            compress(entryAt(count - 1 - HOT_ENTRIES));
+        }
+        trimToBudget();
+    }
+
+    private void trimToBudget() {
+        while (usedBytes > maxBytes && count > 1) {
+            dropOldest();
+        }
+    }
+
+    private void dropOldest() {
+        usedBytes -= ring[head].cost;
+        ring[head] = null;
+        head = (head + 1) % CAPACITY;
+        count--;
+        if (applied > 0) applied--;
+    }
+
+    // The first entry of a chain carries the cost of the whole step
+    private void compress(UndoEntry entry) {
+        if (entry.type != UndoEntry.TYPE_PIXELS) return;
+        int saved = 0;
+        for (UndoEntry e = entry; e != null; e = e.next) {
+            saved += compressPixels(e);
+        }
+        entry.cost -= saved;
+        usedBytes -= saved;
+    }
+
+    private int compressPixels(UndoEntry entry) {
+        if (entry.packed) return 0;
+        byte[] before = pack(entry.before);
+        byte[] after = pack(entry.after);
+        int saved = entry.before.length + entry.after.length - before.length - after.length;
+        if (saved <= 0) return 0;
+        entry.before = before;
+        entry.after = after;
+        entry.packed = true;
+        return saved;
+    }
+
+    /**
+     * PackBits: header n >= 0 copies n + 1 literal bytes, n < 0
+     * repeats the next byte 1 - n times.
+     */
+    private static byte[] pack(byte[] data) {
+        int len = data.length;
+        byte[] out = new byte[len + len / 128 + 1];
+        int o = 0;
+        int i = 0;
+        while (i < len) {
+            int run = 1;
+            while (i + run < len && run < 128 && data[i + run] == data[i]) run++;
+            if (run > 2) {
+                out[o++] = (byte) (1 - run);
+                out[o++] = data[i];
+                i += run;
+                continue;
+            }
+            // Literal until the next run of three or more
+            int start = i;
+            int lit = 0;
+            while (i < len && lit < 128) {
+                if (i + 2 < len && data[i] == data[i + 1] && data[i] == data[i + 2]) break;
+                i++;
+                lit++;
+            }
+            out[o++] = (byte) (lit - 1);
+            System.arraycopy(data, start, out, o, lit);
+            o += lit;
+        }
+        byte[] result = new byte[o];
+        System.arraycopy(out, 0, result, 0, o);
+        return result;
+    }
+
+    private static void unpack(byte[] packed, byte[] out) {
+        int i = 0;
+        int o = 0;
+        while (i < packed.length) {
+            int n = packed[i++];
+            if (n >= 0) {
+                System.arraycopy(packed, i, out, o, n + 1);
+                i += n + 1;
+                o += n + 1;
+            } else {
+                byte value = packed[i++];
+                for (int k = 1 - n; k > 0; k--) {
+                    out[o++] = value;
+                }
+            }
+        }
+    }
+
+    private static int[] captureOpacity(Layer[] layers) {
+        int[] values = new int[layers.length];
+        for (int i = 0; i < layers.length; i++) {
+            values[i] = layers[i].getOpacity();
+        }
+        return values;
+    }
+
+    private static boolean[] captureVisibility(Layer[] layers) {
+        boolean[] values = new boolean[layers.length];
+        for (int i = 0; i < layers.length; i++) {
+            values[i] = layers[i].isVisible();
+        }
+        return values;
+    }
+
+    private static boolean sameElements(Object[] a, Object[] b) {
+        if (a.length != b.length) return false;
+        for (int i = 0; i < a.length; i++) {
+            if (a[i] != b[i]) return false;
+        }
+        return true;
+    }
+
+    private static boolean sameValues(int[] a, int[] b) {
+        if (a.length != b.length) return false;
+        for (int i = 0; i < a.length; i++) {
+            if (a[i] != b[i]) return false;
+        }
+        return true;
+    }
+
+    private static boolean sameValues(boolean[] a, boolean[] b) {
+        if (a.length != b.length) return false;
+        for (int i = 0; i < a.length; i++) {
+            if (a[i] != b[i]) return false;
+        }
+        return true;
+    }
+
+    private static int indexOf(Object[] array, Object value) {
+        for (int i = 0; i < array.length; i++) {
+            if (array[i] == value) return i;
         }
+        return -1;
     }
-}
\ No newline at end of file
+}
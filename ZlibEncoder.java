@@ -0,0 +1,706 @@
+import java.io.*;
+
+/**
+ * ZlibEncoder - DEFLATE (RFC 1951) in a zlib wrapper (RFC 1950)
+ *
+ * Levels:
+ * - 0: stored blocks, no compression
+ * - 1-3: greedy LZ77, fixed Huffman codes
+ * - 4-9: lazy LZ77, dynamic Huffman codes (fixed if that is smaller)
+ *
+ * LZ77 uses hash chains over a sliding window of 2^windowBits bytes.
+ * Pixel art has long runs and repeated rows, so distance 1 and an
+ * optional hint distance (e.g. the scanline length) are tried before
+ * the chain is walked.
+ *
+ * Data goes in through write() and is emitted block by block to the
+ * underlying stream; finish() ends the stream but does not close it.
+ */
+public class ZlibEncoder {
+
+    public static final int LEVEL_STORED = 0;
+    public static final int LEVEL_FAST = 1;
+    public static final int LEVEL_DEFAULT = 6;
+    public static final int LEVEL_BEST = 9;
+
+    private static final int MIN_MATCH = 3;
+    private static final int MAX_MATCH = 258;
+    private static final int MIN_LOOKAHEAD = MAX_MATCH + MIN_MATCH + 1;
+    private static final int MAX_STORED = 65535;
+
+    private static final int L_CODES = 286;
+    private static final int D_CODES = 30;
+    private static final int BL_CODES = 19;
+    private static final int END_BLOCK = 256;
+
+    // chain length, lazy limit, good length, nice length per level
+    private static final int[] MAX_CHAIN = { 0, 4, 8, 16, 16, 32, 64, 128, 256, 1024 };
+    private static final int[] MAX_LAZY = { 0, 0, 0, 0, 8, 16, 32, 64, 128, 258 };
+    private static final int[] GOOD_LENGTH = { 0, 4, 4, 4, 8, 8, 16, 32, 64, 258 };
+    private static final int[] NICE_LENGTH = { 0, 8, 16, 32, 32, 64, 128, 128, 258, 258 };
+
+    private static final int[] LENGTH_BASE = {
+        3, 4, 5, 6, 7, 8, 9, 10, 11, 13, 15, 17, 19, 23, 27, 31,
+        35, 43, 51, 59, 67, 83, 99, 115, 131, 163, 195, 227, 258
+    };
+    private static final int[] LENGTH_EXTRA = {
+        0, 0, 0, 0, 0, 0, 0, 0, 1, 1, 1, 1, 2, 2, 2, 2,
+        3, 3, 3, 3, 4, 4, 4, 4, 5, 5, 5, 5, 0
+    };
+    private static final int[] DIST_BASE = {
+        1, 2, 3, 4, 5, 7, 9, 13, 17, 25, 33, 49, 65, 97, 129, 193,
+        257, 385, 513, 769, 1025, 1537, 2049, 3073, 4097, 6145,
+        8193, 12289, 16385, 24577
+    };
+    private static final int[] DIST_EXTRA = {
+        0, 0, 0, 0, 1, 1, 2, 2, 3, 3, 4, 4, 5, 5, 6, 6,
+        7, 7, 8, 8, 9, 9, 10, 10, 11, 11, 12, 12, 13, 13
+    };
+    private static final int[] BL_ORDER = {
+        16, 17, 18, 0, 8, 7, 9, 6, 10, 5, 11, 4, 12, 3, 13, 2, 14, 1, 15
+    };
+
+    // length - 3 -> length code index; distance -> distance code via DIST_CODE
+    private static final byte[] LENGTH_CODE = new byte[256];
+    private static final byte[] DIST_CODE = new byte[512];
+
+    private static final int[] FIXED_LIT_CODES = new int[288];
+    private static final int[] FIXED_LIT_LENGTHS = new int[288];
+    private static final int[] FIXED_DIST_CODES = new int[D_CODES];
+    private static final int[] FIXED_DIST_LENGTHS = new int[D_CODES];
+
+    static {
+        for (int code = 0; code < 28; code++) {
+            int count = 1 << LENGTH_EXTRA[code];
+            for (int i = 0; i < count; i++) {
+                LENGTH_CODE[LENGTH_BASE[code] - 3 + i] = (byte) code;
+            }
+        }
+        LENGTH_CODE[255] = 28;
+        for (int code = 0; code < D_CODES; code++) {
+            int count = 1 << DIST_EXTRA[code];
+            for (int i = 0; i < count; i++) {
+                int d = DIST_BASE[code] - 1 + i;
+                if (d < 256) {
+                    DIST_CODE[d] = (byte) code;
+                } else {
+                    DIST_CODE[256 + (d >> 7)] = (byte) code;
+                }
+            }
+        }
+        for (int i = 0; i < 288; i++) {
+            FIXED_LIT_LENGTHS[i] = i < 144 ? 8 : i < 256 ? 9 : i < 280 ? 7 : 8;
+        }
+        assignCodes(FIXED_LIT_LENGTHS, FIXED_LIT_CODES, 288);
+        for (int i = 0; i < D_CODES; i++) {
+            FIXED_DIST_LENGTHS[i] = 5;
+        }
+        assignCodes(FIXED_DIST_LENGTHS, FIXED_DIST_CODES, D_CODES);
+    }
+
+    private OutputStream out;
+    private int level;
+    private int windowBits;
+    private int wSize;
+    private int wMask;
+
+    private byte[] window;
+    private int fill;
+    private int strStart;
+
+    private int[] head;
+    private int[] prev;
+    private int hashMask;
+    private int matchHint;
+    private int matchDistance;
+
+    // Lazy matching state carried across window slides
+    private boolean matchAvailable;
+    private int prevLength;
+    private int prevDistance;
+
+    private int[] tokens;
+    private int tokenCount;
+    private int[] litFreq;
+    private int[] distFreq;
+
+    private int adlerA = 1;
+    private int adlerB = 0;
+
+    private int bitBuf;
+    private int bitCount;
+    private byte[] pending = new byte[512];
+    private int pendingCount;
+
+    private boolean headerWritten;
+    private boolean finished;
+
+    public ZlibEncoder(OutputStream out, int level) {
+        this(out, level, 15);
+    }
+
+    /**
+     * windowBits 9..15 sets the LZ77 window (and memory use) to
+     * 2^windowBits bytes.
+     */
+    public ZlibEncoder(OutputStream out, int level, int windowBits) {
+        this.out = out;
+        this.level = Math.max(LEVEL_STORED, Math.min(LEVEL_BEST, level));
+        this.windowBits = Math.max(9, Math.min(15, windowBits));
+        this.wSize = 1 << this.windowBits;
+        this.wMask = wSize - 1;
+
+        if (this.level == LEVEL_STORED) {
+            window = new byte[Math.min(MAX_STORED, wSize)];
+            return;
+        }
+        window = new byte[wSize * 2];
+        int hashBits = this.windowBits - 1;
+        head = new int[1 << hashBits];
+        hashMask = head.length - 1;
+        prev = new int[wSize];
+        for (int i = 0; i < head.length; i++) {
+            head[i] = -1;
+        }
+        // Small windows still get blocks long enough to amortize the tree header
+        tokens = new int[Math.max(1024, wSize / 2)];
+        litFreq = new int[L_CODES];
+        distFreq = new int[D_CODES];
+        prevLength = MIN_MATCH - 1;
+    }
+
+    /**
+     * Distance tried before the hash chain, e.g. the length of one
+     * filtered scanline. 0 disables it.
+     */
+    public void setMatchHint(int distance) {
+        matchHint = distance;
+    }
+
+    public void write(byte[] data, int off, int len) throws IOException {
+        if (finished) throw new IOException("Stream finished");
+        writeHeader();
+        updateAdler(data, off, len);
+        while (len > 0) {
+            if (fill == window.length) {
+                if (level == LEVEL_STORED) {
+                    writeStored(false);
+                } else {
+                    compress(false);
+                    slideWindow();
+                }
+            }
+            int n = Math.min(len, window.length - fill);
+            System.arraycopy(data, off, window, fill, n);
+            fill += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    public void finish() throws IOException {
+        if (finished) return;
+        writeHeader();
+        if (level == LEVEL_STORED) {
+            writeStored(true);
+        } else {
+            compress(true);
+            emitBlock(true);
+        }
+        flushBits();
+        int adler = (adlerB << 16) | adlerA;
+        putByte(adler >>> 24);
+        putByte(adler >>> 16);
+        putByte(adler >>> 8);
+        putByte(adler);
+        flushPending();
+        finished = true;
+    }
+
+    private void writeHeader() throws IOException {
+        if (headerWritten) return;
+        headerWritten = true;
+        int cmf = ((windowBits - 8) << 4) | 8;
+        int flevel = level < 2 ? 0 : level < 6 ? 1 : level == 6 ? 2 : 3;
+        int flg = flevel << 6;
+        flg += 31 - ((cmf << 8) + flg) % 31;
+        putByte(cmf);
+        putByte(flg);
+    }
+
+    private void updateAdler(byte[] data, int off, int len) {
+        int a = adlerA;
+        int b = adlerB;
+        while (len > 0) {
+            // 5552 is the most bytes before b can overflow
+            int n = Math.min(len, 5552);
+            len -= n;
+            while (n-- > 0) {
+                a += data[off++] & 0xFF;
+                b += a;
+            }
+            a %= 65521;
+            b %= 65521;
+        }
+        adlerA = a;
+        adlerB = b;
+    }
+
+    // ---------------------------------------------------------------
+    // Stored blocks
+
+    private void writeStored(boolean last) throws IOException {
+        putBits(last ? 1 : 0, 3);
+        flushBits();
+        putByte(fill);
+        putByte(fill >> 8);
+        putByte(~fill);
+        putByte(~fill >> 8);
+        flushPending();
+        out.write(window, 0, fill);
+        fill = 0;
+    }
+
+    // ---------------------------------------------------------------
+    // LZ77
+
+    private void compress(boolean flush) throws IOException {
+        int minLookahead = flush ? 1 : MIN_LOOKAHEAD;
+        if (level <= 3) {
+            compressGreedy(minLookahead);
+        } else {
+            compressLazy(minLookahead);
+        }
+        if (flush && matchAvailable) {
+            addLiteral(window[strStart - 1] & 0xFF);
+            matchAvailable = false;
+        }
+    }
+
+    private void compressGreedy(int minLookahead) throws IOException {
+        while (fill - strStart >= minLookahead) {
+            int chain = insertHash(strStart);
+            int length = 0;
+            if (fill - strStart >= MIN_MATCH) {
+                length = longestMatch(chain, MIN_MATCH - 1);
+            }
+            if (length >= MIN_MATCH) {
+                addMatch(length, matchDistance);
+                int end = strStart + length;
+                for (int p = strStart + 1; p < end; p++) {
+                    insertHash(p);
+                }
+                strStart = end;
+            } else {
+                addLiteral(window[strStart] & 0xFF);
+                strStart++;
+            }
+        }
+    }
+
+    private void compressLazy(int minLookahead) throws IOException {
+        int maxLazy = MAX_LAZY[level];
+        while (fill - strStart >= minLookahead) {
+            int chain = insertHash(strStart);
+            int length = MIN_MATCH - 1;
+            int distance = 0;
+            if (fill - strStart >= MIN_MATCH && prevLength < maxLazy) {
+                length = longestMatch(chain, prevLength);
+                distance = matchDistance;
+                // A three byte match far away costs more than literals
+                if (length == MIN_MATCH && distance > 4096) length = MIN_MATCH - 1;
+            }
+
+            if (prevLength >= MIN_MATCH && length <= prevLength) {
+                addMatch(prevLength, prevDistance);
+                int end = strStart - 1 + prevLength;
+                for (int p = strStart + 1; p < end; p++) {
+                    insertHash(p);
+                }
+                strStart = end;
+                matchAvailable = false;
+                prevLength = MIN_MATCH - 1;
+            } else {
+                if (matchAvailable) {
+                    addLiteral(window[strStart - 1] & 0xFF);
+                }
+                matchAvailable = true;
+                prevLength = length;
+                prevDistance = distance;
+                strStart++;
+            }
+        }
+    }
+
+    /**
+     * Longest match at strStart better than bestLength, walking the
+     * chain from chainHead. Sets matchDistance.
+     */
+    private int longestMatch(int chainHead, int bestLength) {
+        int maxLength = Math.min(MAX_MATCH, fill - strStart);
+        int limit = strStart - wSize;
+        int nice = Math.min(NICE_LENGTH[level], maxLength);
+        int chain = MAX_CHAIN[level];
+        if (bestLength >= GOOD_LENGTH[level]) chain >>= 2;
+        matchDistance = 0;
+        if (bestLength >= maxLength) return bestLength;
+
+        int best = bestLength;
+        int candidate = strStart - 1;
+        int step = 0;
+        while (true) {
+            if (step == 1) {
+                candidate = matchHint > 1 ? strStart - matchHint : -1;
+            } else if (step >= 2) {
+                candidate = step == 2 ? chainHead : prev[candidate & wMask];
+                if (candidate < 0 || candidate <= limit || chain-- <= 0) break;
+            }
+            step++;
+            if (candidate <= limit || candidate < 0) continue;
+            if (window[candidate + best] != window[strStart + best]
+                || window[candidate] != window[strStart]
+                || window[candidate + 1] != window[strStart + 1]) continue;
+
+            int len = 2;
+            while (len < maxLength && window[candidate + len] == window[strStart + len]) len++;
+            if (len > best) {
+                best = len;
+                matchDistance = strStart - candidate;
+                if (len >= nice) break;
+            }
+        }
+        return best;
+    }
+
+    private int insertHash(int pos) {
+        if (pos + 2 >= fill) return -1;
+        int h = (((window[pos] & 0xFF) << 10) ^ ((window[pos + 1] & 0xFF) << 5)
+            ^ (window[pos + 2] & 0xFF)) & hashMask;
+        int old = head[h];
+        prev[pos & wMask] = old;
+        head[h] = pos;
+        return old;
+    }
+
+    private void slideWindow() {
+        if (strStart < wSize) return;
+        System.arraycopy(window, wSize, window, 0, fill - wSize);
+        fill -= wSize;
+        strStart -= wSize;
+        for (int i = 0; i < head.length; i++) {
+            int p = head[i] - wSize;
+            head[i] = p < 0 ? -1 : p;
+        }
+        for (int i = 0; i < prev.length; i++) {
+            int p = prev[i] - wSize;
+            prev[i] = p < 0 ? -1 : p;
+        }
+    }
+
+    // ---------------------------------------------------------------
+    // Tokens and blocks
+
+    private void addLiteral(int b) throws IOException {
+        tokens[tokenCount++] = b;
+        litFreq[b]++;
+        if (tokenCount == tokens.length) emitBlock(false);
+    }
+
+    private void addMatch(int length, int distance) throws IOException {
+        tokens[tokenCount++] = (distance << 16) | length;
+        litFreq[257 + LENGTH_CODE[length - MIN_MATCH]]++;
+        distFreq[distanceCode(distance)]++;
+        if (tokenCount == tokens.length) emitBlock(false);
+    }
+
+    private static int distanceCode(int distance) {
+        int d = distance - 1;
+        return d < 256 ? DIST_CODE[d] : DIST_CODE[256 + (d >> 7)];
+    }
+
+    private void emitBlock(boolean last) throws IOException {
+        litFreq[END_BLOCK]++;
+
+        if (level <= 3) {
+            writeFixedBlock(last);
+        } else {
+            int fixedBits = 3 + dataBits(FIXED_LIT_LENGTHS, FIXED_DIST_LENGTHS);
+            int[] litLengths = new int[L_CODES];
+            int[] distLengths = new int[D_CODES];
+            buildLengths(litFreq, L_CODES, 15, litLengths);
+            buildLengths(distFreq, D_CODES, 15, distLengths);
+
+            int hlit = L_CODES;
+            while (hlit > 257 && litLengths[hlit - 1] == 0) hlit--;
+            int hdist = D_CODES;
+            while (hdist > 1 && distLengths[hdist - 1] == 0) hdist--;
+
+            int[] all = new int[hlit + hdist];
+            System.arraycopy(litLengths, 0, all, 0, hlit);
+            System.arraycopy(distLengths, 0, all, hlit, hdist);
+            int[] rle = new int[all.length];
+            int rleCount = runLengthEncode(all, rle);
+            int[] blFreq = new int[BL_CODES];
+            for (int i = 0; i < rleCount; i++) {
+                blFreq[rle[i] & 0x1F]++;
+            }
+            int[] blLengths = new int[BL_CODES];
+            buildLengths(blFreq, BL_CODES, 7, blLengths);
+            int hclen = BL_CODES;
+            while (hclen > 4 && blLengths[BL_ORDER[hclen - 1]] == 0) hclen--;
+
+            int dynamicBits = 3 + 14 + hclen * 3 + dataBits(litLengths, distLengths);
+            for (int i = 0; i < rleCount; i++) {
+                int sym = rle[i] & 0x1F;
+                dynamicBits += blLengths[sym] + (sym == 16 ? 2 : sym == 17 ? 3 : sym == 18 ? 7 : 0);
+            }
+
+            if (dynamicBits >= fixedBits) {
+                writeFixedBlock(last);
+            } else {
+                int[] litCodes = new int[L_CODES];
+                int[] distCodes = new int[D_CODES];
+                int[] blCodes = new int[BL_CODES];
+                assignCodes(litLengths, litCodes, L_CODES);
+                assignCodes(distLengths, distCodes, D_CODES);
+                assignCodes(blLengths, blCodes, BL_CODES);
+
+                putBits(last ? 1 : 0, 1);
+                putBits(2, 2);
+                putBits(hlit - 257, 5);
+                putBits(hdist - 1, 5);
+                putBits(hclen - 4, 4);
+                for (int i = 0; i < hclen; i++) {
+                    putBits(blLengths[BL_ORDER[i]], 3);
+                }
+                for (int i = 0; i < rleCount; i++) {
+                    int sym = rle[i] & 0x1F;
+                    int extra = rle[i] >> 5;
+                    putBits(blCodes[sym], blLengths[sym]);
+                    if (sym == 16) putBits(extra, 2);
+                    else if (sym == 17) putBits(extra, 3);
+                    else if (sym == 18) putBits(extra, 7);
+                }
+                writeTokens(litCodes, litLengths, distCodes, distLengths);
+            }
+        }
+
+        tokenCount = 0;
+        for (int i = 0; i < L_CODES; i++) litFreq[i] = 0;
+        for (int i = 0; i < D_CODES; i++) distFreq[i] = 0;
+    }
+
+    private void writeFixedBlock(boolean last) throws IOException {
+        putBits(last ? 1 : 0, 1);
+        putBits(1, 2);
+        writeTokens(FIXED_LIT_CODES, FIXED_LIT_LENGTHS, FIXED_DIST_CODES, FIXED_DIST_LENGTHS);
+    }
+
+    private int dataBits(int[] litLengths, int[] distLengths) {
+        int bits = 0;
+        for (int i = 0; i < L_CODES; i++) {
+            int f = litFreq[i];
+            if (f == 0) continue;
+            bits += f * litLengths[i];
+            if (i > END_BLOCK) bits += f * LENGTH_EXTRA[i - 257];
+        }
+        for (int i = 0; i < D_CODES; i++) {
+            bits += distFreq[i] * (distLengths[i] + DIST_EXTRA[i]);
+        }
+        return bits;
+    }
+
+    private void writeTokens(int[] litCodes, int[] litLengths,
+                             int[] distCodes, int[] distLengths) throws IOException {
+        for (int i = 0; i < tokenCount; i++) {
+            int t = tokens[i];
+            if (t < 256) {
+                putBits(litCodes[t], litLengths[t]);
+                continue;
+            }
+            int length = t & 0xFFFF;
+            int distance = t >>> 16;
+            int lc = LENGTH_CODE[length - MIN_MATCH];
+            putBits(litCodes[257 + lc], litLengths[257 + lc]);
+            if (LENGTH_EXTRA[lc] > 0) putBits(length - LENGTH_BASE[lc], LENGTH_EXTRA[lc]);
+            int dc = distanceCode(distance);
+            putBits(distCodes[dc], distLengths[dc]);
+            if (DIST_EXTRA[dc] > 0) putBits(distance - DIST_BASE[dc], DIST_EXTRA[dc]);
+        }
+        putBits(litCodes[END_BLOCK], litLengths[END_BLOCK]);
+    }
+
+    /**
+     * Code length sequence with repeat codes 16/17/18. Each entry is
+     * symbol | (extra bits value << 5).
+     */
+    private static int runLengthEncode(int[] lengths, int[] rle) {
+        int count = 0;
+        int i = 0;
+        while (i < lengths.length) {
+            int len = lengths[i];
+            int run = 1;
+            while (i + run < lengths.length && lengths[i + run] == len) run++;
+            if (len == 0 && run >= 3) {
+                int n = Math.min(run, 138);
+                rle[count++] = n >= 11 ? 18 | ((n - 11) << 5) : 17 | ((n - 3) << 5);
+                i += n;
+            } else if (len != 0 && run >= 4) {
+                rle[count++] = len;
+                int n = Math.min(run - 1, 6);
+                rle[count++] = 16 | ((n - 3) << 5);
+                i += n + 1;
+            } else {
+                rle[count++] = len;
+                i++;
+            }
+        }
+        return count;
+    }
+
+    // ---------------------------------------------------------------
+    // Huffman codes
+
+    /**
+     * Huffman code lengths for freq[0..n), at most maxBits long. If the
+     * tree is too deep the frequencies are flattened and it is rebuilt.
+     */
+    private static void buildLengths(int[] freq, int n, int maxBits, int[] lengths) {
+        int[] f = new int[n];
+        System.arraycopy(freq, 0, f, 0, n);
+        int used = 0;
+        for (int i = 0; i < n; i++) {
+            lengths[i] = 0;
+            if (f[i] > 0) used++;
+        }
+        // A complete code needs two symbols
+        if (used < 2) {
+            for (int i = 0; i < n && used < 2; i++) {
+                if (f[i] == 0) { f[i] = 1; used++; }
+            }
+        }
+
+        int[] leaves = new int[used];
+        int[] weight = new int[used * 2];
+        int[] parent = new int[used * 2];
+        while (true) {
+            int k = 0;
+            for (int i = 0; i < n; i++) {
+                if (f[i] > 0) leaves[k++] = i;
+            }
+            // Insertion sort by frequency; used is at most 286
+            for (int i = 1; i < used; i++) {
+                int sym = leaves[i];
+                int j = i - 1;
+                while (j >= 0 && f[leaves[j]] > f[sym]) {
+                    leaves[j + 1] = leaves[j];
+                    j--;
+                }
+                leaves[j + 1] = sym;
+            }
+            for (int i = 0; i < used; i++) {
+                weight[i] = f[leaves[i]];
+            }
+
+            // Two queues: sorted leaves and internal nodes in creation order
+            int nextLeaf = 0;
+            int nextNode = used;
+            int nodeCount = used;
+            while (nodeCount < used * 2 - 1) {
+                int a;
+                int b;
+                if (nextLeaf < used && (nextNode >= nodeCount || weight[nextLeaf] <= weight[nextNode])) {
+                    a = nextLeaf++;
+                } else {
+                    a = nextNode++;
+                }
+                if (nextLeaf < used && (nextNode >= nodeCount || weight[nextLeaf] <= weight[nextNode])) {
+                    b = nextLeaf++;
+                } else {
+                    b = nextNode++;
+                }
+                weight[nodeCount] = weight[a] + weight[b];
+                parent[a] = nodeCount;
+                parent[b] = nodeCount;
+                nodeCount++;
+            }
+
+            // Depths from the root down; the root is the last node
+            int root = nodeCount - 1;
+            int maxDepth = 0;
+            int[] d = new int[nodeCount];
+            d[root] = 0;
+            for (int i = root - 1; i >= 0; i--) {
+                d[i] = d[parent[i]] + 1;
+                if (i < used && d[i] > maxDepth) maxDepth = d[i];
+            }
+            if (maxDepth <= maxBits) {
+                for (int i = 0; i < used; i++) {
+                    lengths[leaves[i]] = d[i];
+                }
+                return;
+            }
+            for (int i = 0; i < n; i++) {
+                if (f[i] > 0) f[i] = (f[i] + 1) >> 1;
+            }
+        }
+    }
+
+    /**
+     * Canonical codes for the given lengths, bit-reversed for the
+     * LSB-first bit stream.
+     */
+    private static void assignCodes(int[] lengths, int[] codes, int n) {
+        int[] blCount = new int[16];
+        for (int i = 0; i < n; i++) blCount[lengths[i]]++;
+        blCount[0] = 0;
+        int[] nextCode = new int[16];
+        int code = 0;
+        for (int bits = 1; bits < 16; bits++) {
+            code = (code + blCount[bits - 1]) << 1;
+            nextCode[bits] = code;
+        }
+        for (int i = 0; i < n; i++) {
+            int len = lengths[i];
+            if (len == 0) continue;
+            int c = nextCode[len]++;
+            int r = 0;
+            for (int b = 0; b < len; b++) {
+                r = (r << 1) | (c & 1);
+                c >>= 1;
+            }
+            codes[i] = r;
+        }
+    }
+
+    // ---------------------------------------------------------------
+    // Bit output
+
+    private void putBits(int value, int bits) throws IOException {
+        bitBuf |= value << bitCount;
+        bitCount += bits;
+        while (bitCount >= 8) {
+            putByte(bitBuf);
+            bitBuf >>>= 8;
+            bitCount -= 8;
+        }
+    }
+
+    private void flushBits() throws IOException {
+        if (bitCount > 0) putByte(bitBuf);
+        bitBuf = 0;
+        bitCount = 0;
+    }
+
+    private void putByte(int b) throws IOException {
+        if (pendingCount == pending.length) flushPending();
+        pending[pendingCount++] = (byte) b;
+    }
+
+    private void flushPending() throws IOException {
+        if (pendingCount > 0) {
+            out.write(pending, 0, pendingCount);
+            pendingCount = 0;
+        }
+    }
+}